@@ -0,0 +1,117 @@
+package biblioteca.benchmark;
+
+import biblioteca.Biblioteca;
+import biblioteca.Diario;
+import biblioteca.Direccion;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de arrancar una biblioteca desde disco con un historial grande.
+ *
+ * <p>{@link #cargarInstantanea()} abre un diario recien recortado, asi que
+ * mide sobre todo la carga de la instantanea. {@link #abrirDiario()} abre la
+ * misma instantanea con {@link #COLA_DIARIO} intentos de prestamo mas en el
+ * diario, que hay que reproducir sobre ella. Cada iteracion arranca una
+ * biblioteca vacia y la puntuacion es el tiempo de {@link Diario#abrir}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = "-Xmx4g")
+public class ArranqueBenchmark {
+    // Por debajo de los registros que lanzan una instantanea automatica.
+    static final int COLA_DIARIO = 10_000;
+
+    @Param({"100000"})
+    public int libros;
+
+    @Param({"1000000"})
+    public int historial;
+
+    private static final Direccion DIRECCION = new Direccion("Calle Mayor", "1", "29001", "Malaga");
+
+    private Path directorio;
+    private Path instantanea;
+    private Path diario;
+    private Biblioteca biblioteca;
+    private Diario abierto;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        directorio = Files.createTempDirectory("arranque");
+        instantanea = directorio.resolve("instantanea.diario");
+        diario = directorio.resolve("diario.diario");
+        int totalUsuarios = Math.max(1000, libros / 10);
+        GeneradorDatos generador = new GeneradorDatos();
+        // El historial se genera sin diario, que sincronizaria cada prestamo,
+        // y se guarda entero en la instantanea.
+        Path copia;
+        try (Biblioteca origen = generador.biblioteca(libros, totalUsuarios)) {
+            generador.generarHistorial(origen, libros, totalUsuarios, historial);
+            try (Diario nuevo = Diario.abrir(instantanea, origen)) {
+                nuevo.escribirInstantanea();
+                copia = nuevo.getFicheroInstantanea();
+            }
+        }
+        Files.copy(instantanea, diario);
+        Files.copy(copia, copia.resolveSibling(diario.getFileName() + ".instantanea"));
+        try (Biblioteca origen = new Biblioteca("Biblioteca de pruebas", DIRECCION);
+             Diario cola = Diario.abrir(diario, origen)) {
+            generador.generarHistorial(origen, libros, totalUsuarios, COLA_DIARIO);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void borrar() throws IOException {
+        try (Stream<Path> ficheros = Files.walk(directorio)) {
+            for (Path fichero : (Iterable<Path>) ficheros.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(fichero);
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void vaciar() {
+        biblioteca = new Biblioteca("Biblioteca de pruebas", DIRECCION);
+    }
+
+    @TearDown(Level.Iteration)
+    public void cerrar() throws IOException {
+        abierto.close();
+        biblioteca.close();
+    }
+
+    @Benchmark
+    public Diario cargarInstantanea() throws IOException {
+        abierto = Diario.abrir(instantanea, biblioteca);
+        return abierto;
+    }
+
+    @Benchmark
+    public Diario abrirDiario() throws IOException {
+        abierto = Diario.abrir(diario, biblioteca);
+        return abierto;
+    }
+}
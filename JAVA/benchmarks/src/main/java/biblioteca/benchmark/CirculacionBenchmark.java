@@ -0,0 +1,107 @@
+package biblioteca.benchmark;
+
+import biblioteca.Biblioteca;
+
+import java.time.LocalDate;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de prestar y devolver segun el tamanio del catalogo y del historial.
+ *
+ * <p>Cada iteracion mide un lote de {@link #LOTE} operaciones sobre ejemplares
+ * distintos; entre iteraciones se devuelven (o se prestan) todos para volver
+ * al estado de partida. La puntuacion es el tiempo del lote completo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, batchSize = CirculacionBenchmark.LOTE)
+@Measurement(iterations = 20, batchSize = CirculacionBenchmark.LOTE)
+@Fork(1)
+public class CirculacionBenchmark {
+    static final int LOTE = 1000;
+    private static final LocalDate FECHA = GeneradorDatos.FECHA_BASE;
+
+    @Param({"1000", "100000"})
+    public int libros;
+
+    @Param({"0", "100000"})
+    public int historial;
+
+    private Biblioteca biblioteca;
+    private String[] codigos;
+    private String[] usuarios;
+    private int siguiente;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        int totalUsuarios = Math.max(LOTE, libros / 10);
+        GeneradorDatos generador = new GeneradorDatos();
+        biblioteca = generador.biblioteca(libros, totalUsuarios);
+        generador.generarHistorial(biblioteca, libros, totalUsuarios, historial);
+        codigos = new String[LOTE];
+        usuarios = new String[LOTE];
+        for (int i = 0; i < LOTE; i++) {
+            int libro = (int) ((long) i * libros / LOTE);
+            codigos[i] = GeneradorDatos.codigoEjemplar(libro, 0);
+            usuarios[i] = GeneradorDatos.idUsuario(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        biblioteca.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void reiniciar() {
+        siguiente = 0;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Devueltos {
+        @Setup(Level.Iteration)
+        public void devolverTodo(CirculacionBenchmark estado) {
+            for (String codigo : estado.codigos) {
+                estado.biblioteca.devolver(codigo, FECHA);
+            }
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Prestados {
+        @Setup(Level.Iteration)
+        public void prestarTodo(CirculacionBenchmark estado) {
+            for (int i = 0; i < LOTE; i++) {
+                estado.biblioteca.devolver(estado.codigos[i], FECHA);
+                estado.biblioteca.prestar(estado.codigos[i], estado.usuarios[i], FECHA);
+            }
+        }
+    }
+
+    @Benchmark
+    public Object prestar(Devueltos devueltos) {
+        int i = siguiente++;
+        return biblioteca.prestar(codigos[i], usuarios[i], FECHA);
+    }
+
+    @Benchmark
+    public boolean devolver(Prestados prestados) {
+        return biblioteca.devolver(codigos[siguiente++], FECHA);
+    }
+}
@@ -0,0 +1,93 @@
+package biblioteca.benchmark;
+
+import biblioteca.Autor;
+import biblioteca.Categoria;
+import biblioteca.Direccion;
+import biblioteca.Ejemplar;
+import biblioteca.Libro;
+import biblioteca.Usuario;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de crear las entidades que validan sus datos al construirse, como
+ * en una carga masiva del catalogo. Cada operacion crea un objeto con datos
+ * distintos de una tabla preparada de antemano.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConstruccionBenchmark {
+    private static final int DATOS = 1024;
+
+    private String[] isbns;
+    private String[] codigos;
+    private String[] codigosPostales;
+    private String[] ids;
+    private Autor[] autores;
+    private Libro libro;
+    private Direccion direccion;
+    private int siguiente;
+
+    @Setup
+    public void preparar() {
+        isbns = new String[DATOS];
+        codigos = new String[DATOS];
+        codigosPostales = new String[DATOS];
+        ids = new String[DATOS];
+        for (int i = 0; i < DATOS; i++) {
+            isbns[i] = GeneradorDatos.isbn(i);
+            codigos[i] = GeneradorDatos.codigoEjemplar(i, i % GeneradorDatos.EJEMPLARES_POR_LIBRO);
+            codigosPostales[i] = String.format("%05d", 29000 + i);
+            ids[i] = GeneradorDatos.idUsuario(i);
+        }
+        autores = new Autor[]{new Autor("Ana", "Perez Gil", "")};
+        libro = new Libro(isbns[0], "Titulo de prueba", 2000, Categoria.NOVELA, autores);
+        direccion = new Direccion("Calle Mayor", "1", "29001", "Malaga");
+    }
+
+    private int indice() {
+        int i = siguiente;
+        siguiente = (i + 1) & (DATOS - 1);
+        return i;
+    }
+
+    @Benchmark
+    public Libro libro() {
+        return new Libro(isbns[indice()], "Titulo de prueba", 2000, Categoria.NOVELA, autores);
+    }
+
+    @Benchmark
+    public Ejemplar ejemplar() {
+        return new Ejemplar(codigos[indice()], libro);
+    }
+
+    @Benchmark
+    public Direccion direccion() {
+        return new Direccion("Calle Mayor", "1", codigosPostales[indice()], "Malaga");
+    }
+
+    @Benchmark
+    public Usuario usuario() {
+        return new Usuario(ids[indice()], "Ana Perez", "ana@correo.es", direccion);
+    }
+
+    @Benchmark
+    public Autor autor() {
+        return new Autor("Ana  Maria", codigos[indice()], "");
+    }
+}
@@ -0,0 +1,92 @@
+package biblioteca.benchmark;
+
+import biblioteca.Biblioteca;
+import biblioteca.Libro;
+import biblioteca.PaginaResultados;
+import biblioteca.Prestamo;
+import biblioteca.Usuario;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Busquedas y listados sobre catalogos e historiales de distinto tamanio.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConsultasBenchmark {
+    @Param({"1000", "100000"})
+    public int libros;
+
+    @Param({"0", "100000"})
+    public int historial;
+
+    /** Texto que coincide con una fraccion grande del catalogo y uno muy selectivo. */
+    @Param({"casa", "memoria silencio"})
+    public String texto;
+
+    private Biblioteca biblioteca;
+    private String usuarioConPrestamos;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        int totalUsuarios = Math.max(1000, libros / 10);
+        GeneradorDatos generador = new GeneradorDatos();
+        biblioteca = generador.biblioteca(libros, totalUsuarios);
+        generador.generarHistorial(biblioteca, libros, totalUsuarios, historial);
+        usuarioConPrestamos = GeneradorDatos.idUsuario(0);
+        for (int i = 0; i < 3; i++) {
+            String codigo = GeneradorDatos.codigoEjemplar(i, GeneradorDatos.EJEMPLARES_POR_LIBRO - 1);
+            biblioteca.devolver(codigo, GeneradorDatos.FECHA_BASE);
+            biblioteca.prestar(codigo, usuarioConPrestamos, GeneradorDatos.FECHA_BASE);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() throws IOException {
+        biblioteca.close();
+    }
+
+    @Benchmark
+    public Libro[] buscarLibros() {
+        return biblioteca.buscarLibros(texto);
+    }
+
+    @Benchmark
+    public PaginaResultados<Libro> buscarLibrosPrimeraPagina() {
+        return biblioteca.buscarLibros(texto, 0, 20);
+    }
+
+    @Benchmark
+    public Usuario[] buscarUsuarios() {
+        return biblioteca.buscarUsuarios(texto);
+    }
+
+    @Benchmark
+    public Prestamo[] prestamosActivosUsuario() {
+        return biblioteca.prestamosActivosUsuario(usuarioConPrestamos);
+    }
+
+    @Benchmark
+    public String listadoLibros() {
+        return biblioteca.listadoLibros();
+    }
+}
@@ -0,0 +1,144 @@
+package biblioteca.benchmark;
+
+import biblioteca.Autor;
+import biblioteca.Biblioteca;
+import biblioteca.Categoria;
+import biblioteca.Direccion;
+import biblioteca.Ejemplar;
+import biblioteca.FormatoListado;
+import biblioteca.Libro;
+import biblioteca.Usuario;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.SplittableRandom;
+
+/**
+ * Genera bibliotecas sinteticas reproducibles: con la misma semilla y los
+ * mismos tamanios se obtienen siempre los mismos libros, usuarios y prestamos.
+ */
+public final class GeneradorDatos {
+    public static final long SEMILLA = 20250301L;
+    public static final int EJEMPLARES_POR_LIBRO = 3;
+    public static final LocalDate FECHA_BASE = LocalDate.of(2025, 1, 1);
+
+    private static final String[] PALABRAS = {
+        "casa", "noche", "mar", "guerra", "paz", "sombra", "viento", "ciudad", "jardin", "rio",
+        "historia", "camino", "tiempo", "luz", "invierno", "verano", "corazon", "isla", "puerta", "sueno",
+        "cronica", "memoria", "silencio", "fuego", "agua", "montana", "estrella", "libro", "cielo", "tierra"
+    };
+    private static final String[] NOMBRES = {
+        "Ana", "Luis", "Maria", "Jose", "Carmen", "Javier", "Lucia", "Pablo", "Elena", "Miguel",
+        "Sofia", "Daniel", "Laura", "Hugo", "Marta", "Alvaro", "Paula", "Diego", "Irene", "Sergio"
+    };
+    private static final String[] APELLIDOS = {
+        "Garcia", "Martinez", "Lopez", "Sanchez", "Perez", "Gomez", "Martin", "Jimenez", "Ruiz", "Hernandez",
+        "Diaz", "Moreno", "Munoz", "Alvarez", "Romero", "Alonso", "Gutierrez", "Navarro", "Torres", "Dominguez"
+    };
+    private static final String[] LOCALIDADES = {"Malaga", "Sevilla", "Granada", "Cordoba", "Almeria", "Cadiz"};
+
+    private final SplittableRandom aleatorio;
+    private final Direccion direccion;
+    private final Autor[] autores;
+
+    public GeneradorDatos() {
+        this(SEMILLA);
+    }
+
+    public GeneradorDatos(long semilla) {
+        this.aleatorio = new SplittableRandom(semilla);
+        this.direccion = new Direccion("Calle Mayor", "1", "29001", "Malaga");
+        this.autores = new Autor[200];
+        for (int i = 0; i < autores.length; i++) {
+            autores[i] = new Autor(NOMBRES[i % NOMBRES.length], APELLIDOS[(i / NOMBRES.length) % APELLIDOS.length]
+                    + " " + APELLIDOS[i % APELLIDOS.length], "");
+        }
+    }
+
+    /**
+     * Biblioteca con {@code totalLibros} libros de {@link #EJEMPLARES_POR_LIBRO}
+     * ejemplares cada uno y {@code totalUsuarios} usuarios.
+     */
+    public Biblioteca biblioteca(int totalLibros, int totalUsuarios) {
+        Biblioteca biblioteca = new Biblioteca("Biblioteca de pruebas", direccion, Math.max(totalLibros, totalUsuarios));
+        for (int i = 0; i < totalLibros; i++) {
+            biblioteca.altaLibro(libro(i));
+        }
+        for (int i = 0; i < totalUsuarios; i++) {
+            biblioteca.altaUsuario(usuario(i));
+        }
+        return biblioteca;
+    }
+
+    /**
+     * Registra {@code total} prestamos ya devueltos para simular el historial
+     * acumulado de una biblioteca en uso.
+     */
+    public void generarHistorial(Biblioteca biblioteca, int totalLibros, int totalUsuarios, int total) {
+        for (int i = 0; i < total; i++) {
+            String codigo = codigoEjemplar(aleatorio.nextInt(totalLibros), aleatorio.nextInt(EJEMPLARES_POR_LIBRO));
+            String usuario = idUsuario(aleatorio.nextInt(totalUsuarios));
+            LocalDate fecha = FECHA_BASE.minusDays(1 + aleatorio.nextInt(365));
+            try {
+                biblioteca.prestar(codigo, usuario, fecha);
+                biblioteca.devolver(codigo, fecha.plusDays(aleatorio.nextInt(30)));
+            } catch (IllegalArgumentException e) {
+                // Ejemplar ya prestado o usuario al limite: se pasa al siguiente.
+            }
+        }
+    }
+
+    /**
+     * Catalogo de {@code totalLibros} libros escrito como lo lee
+     * {@link biblioteca.ImportadorCatalogo}: el listado de libros de la
+     * biblioteca en CSV o JSON lines.
+     */
+    public String catalogo(int totalLibros, FormatoListado formato) throws IOException {
+        StringBuilder texto = new StringBuilder(totalLibros * 160);
+        try (Biblioteca origen = biblioteca(totalLibros, 0)) {
+            origen.listadoLibros(texto, formato);
+        }
+        return texto.toString();
+    }
+
+    public Libro libro(int indice) {
+        String titulo = palabra() + " " + palabra() + " " + palabra() + " " + indice;
+        Autor[] autoresLibro = {autores[aleatorio.nextInt(autores.length)]};
+        Categoria categoria = Categoria.values()[aleatorio.nextInt(Categoria.values().length)];
+        Libro libro = new Libro(isbn(indice), titulo, 1900 + aleatorio.nextInt(125), categoria, autoresLibro);
+        for (int j = 0; j < EJEMPLARES_POR_LIBRO; j++) {
+            libro.agregarEjemplar(new Ejemplar(codigoEjemplar(indice, j), libro));
+        }
+        return libro;
+    }
+
+    public Usuario usuario(int indice) {
+        String nombre = NOMBRES[aleatorio.nextInt(NOMBRES.length)] + " " + APELLIDOS[aleatorio.nextInt(APELLIDOS.length)];
+        String localidad = LOCALIDADES[aleatorio.nextInt(LOCALIDADES.length)];
+        Direccion domicilio = new Direccion("Calle " + palabra(), String.valueOf(1 + aleatorio.nextInt(200)),
+                String.format("%05d", 29000 + aleatorio.nextInt(1000)), localidad);
+        return new Usuario(idUsuario(indice), nombre, "usuario" + indice + "@correo.es", domicilio);
+    }
+
+    public String palabra() {
+        return PALABRAS[aleatorio.nextInt(PALABRAS.length)];
+    }
+
+    public static String isbn(int indice) {
+        String primerosDoce = String.format("978%09d", indice);
+        int suma = 0;
+        for (int i = 0; i < primerosDoce.length(); i++) {
+            int digito = primerosDoce.charAt(i) - '0';
+            suma += i % 2 == 0 ? digito : 3 * digito;
+        }
+        return primerosDoce + (10 - suma % 10) % 10;
+    }
+
+    public static String codigoEjemplar(int libro, int ejemplar) {
+        return "E" + libro + "-" + ejemplar;
+    }
+
+    public static String idUsuario(int indice) {
+        return String.format("u%07d", indice);
+    }
+}
@@ -0,0 +1,72 @@
+package biblioteca.benchmark;
+
+import biblioteca.Biblioteca;
+import biblioteca.Direccion;
+import biblioteca.FormatoListado;
+import biblioteca.ImportadorCatalogo;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Coste de importar un catalogo completo en una biblioteca vacia, en CSV y en
+ * JSON lines. El texto se genera una vez por prueba; cada iteracion importa
+ * todo el catalogo en una biblioteca nueva y la puntuacion es el tiempo de la
+ * importacion completa.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ImportacionBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int libros;
+
+    @Param({"CSV", "JSONL"})
+    public ImportadorCatalogo.Formato formato;
+
+    private String catalogo;
+    private Biblioteca biblioteca;
+
+    @Setup(Level.Trial)
+    public void preparar() throws IOException {
+        catalogo = new GeneradorDatos().catalogo(libros, FormatoListado.valueOf(formato.name()));
+    }
+
+    @Setup(Level.Iteration)
+    public void vaciar() {
+        biblioteca = new Biblioteca("Biblioteca de pruebas", new Direccion("Calle Mayor", "1", "29001", "Malaga"));
+    }
+
+    @TearDown(Level.Iteration)
+    public void cerrar() throws IOException {
+        biblioteca.close();
+    }
+
+    @Benchmark
+    public ImportadorCatalogo.Resumen importar() throws IOException {
+        ImportadorCatalogo.Resumen resumen = new ImportadorCatalogo(biblioteca)
+                .importar(new StringReader(catalogo), formato, new StringBuilder());
+        if (resumen.getImportadas() != libros) {
+            throw new IllegalStateException("Se esperaban " + libros + " libros importados: " + resumen);
+        }
+        return resumen;
+    }
+}
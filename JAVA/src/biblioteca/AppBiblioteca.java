@@ -1,5 +1,7 @@
 package biblioteca;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.Locale;
 
@@ -11,11 +13,15 @@ public final class AppBiblioteca {
             "Biblioteca DWEC",
             new Direccion("Calle Principal", "1", "29001", "Malaga"));
 
+    private static final int RESULTADOS_POR_PAGINA = 20;
+    private static final Path FICHERO_DIARIO = Path.of("biblioteca.diario");
+
     private AppBiblioteca() {
     }
 
     public static void main(String[] args) {
         Locale.setDefault(Locale.forLanguageTag("es-ES"));
+        abrirDiario();
         boolean salir = false;
         while (!salir) {
             mostrarMenu();
@@ -30,7 +36,9 @@ public final class AppBiblioteca {
                     case "5" -> devolverLibro();
                     case "6" -> listarPrestamosUsuario();
                     case "7" -> mostrarListadoLibros();
-                    case "8" -> {
+                    case "8" -> importarCatalogo();
+                    case "9" -> reservarLibro();
+                    case "10" -> {
                         salir = true;
                         mostrarMensaje("Hasta pronto\n");
                     }
@@ -40,6 +48,23 @@ public final class AppBiblioteca {
                 mostrarMensaje("Error: " + e.getMessage() + "\n");
             }
         }
+        cerrarBiblioteca();
+    }
+
+    private static void abrirDiario() {
+        try {
+            Diario.abrir(FICHERO_DIARIO, BIBLIOTECA);
+        } catch (IOException e) {
+            mostrarMensaje("No se pudo abrir el diario, los cambios no se guardaran: " + e.getMessage() + "\n");
+        }
+    }
+
+    private static void cerrarBiblioteca() {
+        try {
+            BIBLIOTECA.close();
+        } catch (IOException e) {
+            mostrarMensaje("Error al cerrar la biblioteca: " + e.getMessage() + "\n");
+        }
     }
 
     private static void mostrarMenu() {
@@ -51,7 +76,9 @@ public final class AppBiblioteca {
                 "5. Devolver libro\n" +
                 "6. Listar prestamos activos de un usuario\n" +
                 "7. Listado de libros\n" +
-                "8. Salir\n");
+                "8. Importar catalogo (CSV o JSON lines)\n" +
+                "9. Reservar libro\n" +
+                "10. Salir\n");
     }
 
     private static void altaLibro() {
@@ -76,6 +103,20 @@ public final class AppBiblioteca {
         mostrarMensaje("Libro registrado correctamente\n");
     }
 
+    private static void importarCatalogo() {
+        Path fichero = Path.of(Entrada.leerCadena("Fichero a importar (.csv o .jsonl): "));
+        Path informe = Path.of(fichero + ".errores");
+        try {
+            ImportadorCatalogo.Resumen resumen = new ImportadorCatalogo(BIBLIOTECA).importar(fichero, informe);
+            mostrarMensaje(resumen + System.lineSeparator());
+            if (resumen.getRechazadas() > 0) {
+                mostrarMensaje("Filas rechazadas en " + informe + System.lineSeparator());
+            }
+        } catch (IOException e) {
+            mostrarMensaje("No se pudo importar el catalogo: " + e.getMessage() + "\n");
+        }
+    }
+
     private static void altaUsuario() {
         String id = Entrada.leerCadena("ID (6-12 caracteres alfanumericos): ");
         String nombre = Entrada.leerCadena("Nombre completo: ");
@@ -92,27 +133,41 @@ public final class AppBiblioteca {
 
     private static void buscarLibros() {
         String texto = Entrada.leerCadena("Texto a buscar: ");
-        Libro[] libros = BIBLIOTECA.buscarLibros(texto);
-        if (libros.length == 0) {
+        PaginaResultados<Libro> pagina = BIBLIOTECA.buscarLibros(texto, 0, RESULTADOS_POR_PAGINA);
+        if (pagina.getTotal() == 0) {
             mostrarMensaje("No se encontraron coincidencias\n");
             return;
         }
-        for (Libro libro : libros) {
-            mostrarMensaje(libro + System.lineSeparator());
+        while (true) {
+            for (Libro libro : pagina.getElementos()) {
+                mostrarMensaje(libro + System.lineSeparator());
+            }
+            mostrarMensaje("Mostrando " + pagina.siguienteDesde() + " de " + pagina.getTotal() + "\n");
+            if (!pagina.hayMas() || !Entrada.leerCadena("Ver mas resultados? (s/n): ").trim().equalsIgnoreCase("s")) {
+                return;
+            }
+            pagina = BIBLIOTECA.buscarLibros(texto, pagina.siguienteDesde(), RESULTADOS_POR_PAGINA);
         }
     }
 
     private static void prestarLibro() {
         String codigo = Entrada.leerCadena("Codigo del ejemplar: ");
         String idUsuario = Entrada.leerCadena("ID del usuario: ");
-        LocalDate fecha = Entrada.leerFecha("Fecha de prestamo (YYYY-MM-DD, vacio para hoy): ", true, LocalDate.now());
+        LocalDate fecha = Entrada.leerFecha("Fecha de prestamo (YYYY-MM-DD, vacio para hoy): ", true, BIBLIOTECA.hoy());
         Prestamo prestamo = BIBLIOTECA.prestar(codigo, idUsuario, fecha);
         mostrarMensaje("Prestamo creado: " + prestamo + "\n");
     }
 
+    private static void reservarLibro() {
+        String isbn = Entrada.leerCadena("ISBN del libro: ");
+        String id = Entrada.leerCadena("ID del usuario: ");
+        int posicion = BIBLIOTECA.reservar(isbn, id);
+        mostrarMensaje("Reserva registrada, posicion en la cola: " + posicion + "\n");
+    }
+
     private static void devolverLibro() {
         String codigo = Entrada.leerCadena("Codigo del ejemplar: ");
-        LocalDate fecha = Entrada.leerFecha("Fecha de devolucion (YYYY-MM-DD, vacio para hoy): ", true, LocalDate.now());
+        LocalDate fecha = Entrada.leerFecha("Fecha de devolucion (YYYY-MM-DD, vacio para hoy): ", true, BIBLIOTECA.hoy());
         boolean resultado = BIBLIOTECA.devolver(codigo, fecha);
         if (resultado) {
             mostrarMensaje("Devolucion registrada\n");
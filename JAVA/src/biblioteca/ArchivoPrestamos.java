@@ -0,0 +1,245 @@
+package biblioteca;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Prestamos ya devueltos guardados por columnas fuera del heap, en un fichero
+ * temporal proyectado en memoria. Cada prestamo ocupa una fila con el numero
+ * del ejemplar y del usuario (ver {@link Numeracion}) y las fechas de inicio,
+ * limite y devolucion como dias desde 1970, de modo que el heap solo guarda
+ * los prestamos activos.
+ *
+ * <p>Las filas se agrupan en segmentos de {@value #REGISTROS_POR_SEGMENTO}
+ * prestamos; dentro de un segmento cada columna es contigua. Dos columnas mas
+ * enlazan cada fila con la anterior del mismo usuario y del mismo ejemplar,
+ * asi que el historial de uno u otro se recorre sin mirar el resto. Para las
+ * consultas por fecha se recuerda el inicio minimo y maximo de cada segmento.
+ *
+ * <p>Las filas no cambian una vez escritas. Las altas se hacen de una en una;
+ * las lecturas de filas no se bloquean y las consultas solo se sincronizan
+ * para leer el ultimo registro de cada usuario o ejemplar.
+ *
+ * <p>{@link #close()} borra el fichero; despues el archivo queda vacio.
+ */
+final class ArchivoPrestamos implements Closeable {
+    static final int SIN_REGISTRO = -1;
+    private static final int BITS_SEGMENTO = 16;
+    private static final int REGISTROS_POR_SEGMENTO = 1 << BITS_SEGMENTO;
+    private static final int MASCARA_SEGMENTO = REGISTROS_POR_SEGMENTO - 1;
+
+    private static final int EJEMPLAR = 0;
+    private static final int USUARIO = 1;
+    private static final int INICIO = 2;
+    private static final int LIMITE = 3;
+    private static final int DEVOLUCION = 4;
+    private static final int ANTERIOR_USUARIO = 5;
+    private static final int ANTERIOR_EJEMPLAR = 6;
+    private static final int COLUMNAS = 7;
+    private static final long BYTES_SEGMENTO = (long) REGISTROS_POR_SEGMENTO * COLUMNAS * Integer.BYTES;
+
+    private FileChannel canal;
+    private volatile ByteBuffer[] segmentos = new ByteBuffer[0];
+    private int[] minimoInicio = new int[0];
+    private int[] maximoInicio = new int[0];
+    private int[] ultimoPorUsuario = new int[0];
+    private int[] ultimoPorEjemplar = new int[0];
+    private volatile int total;
+    private boolean cerrado;
+
+    synchronized int agregar(int ejemplar, int usuario, int inicio, int limite, int devolucion) {
+        if (cerrado) {
+            throw new IllegalStateException("El archivo de prestamos esta cerrado");
+        }
+        int registro = total;
+        int segmento = registro >>> BITS_SEGMENTO;
+        if (segmento == segmentos.length) {
+            ampliar();
+        }
+        ultimoPorUsuario = asegurar(ultimoPorUsuario, usuario);
+        ultimoPorEjemplar = asegurar(ultimoPorEjemplar, ejemplar);
+        ByteBuffer datos = segmentos[segmento];
+        int fila = registro & MASCARA_SEGMENTO;
+        escribir(datos, EJEMPLAR, fila, ejemplar);
+        escribir(datos, USUARIO, fila, usuario);
+        escribir(datos, INICIO, fila, inicio);
+        escribir(datos, LIMITE, fila, limite);
+        escribir(datos, DEVOLUCION, fila, devolucion);
+        escribir(datos, ANTERIOR_USUARIO, fila, ultimoPorUsuario[usuario]);
+        escribir(datos, ANTERIOR_EJEMPLAR, fila, ultimoPorEjemplar[ejemplar]);
+        ultimoPorUsuario[usuario] = registro;
+        ultimoPorEjemplar[ejemplar] = registro;
+        minimoInicio[segmento] = Math.min(minimoInicio[segmento], inicio);
+        maximoInicio[segmento] = Math.max(maximoInicio[segmento], inicio);
+        // La escritura volatil publica la fila a los lectores.
+        total = registro + 1;
+        return registro;
+    }
+
+    int tamanio() {
+        return total;
+    }
+
+    /**
+     * Cierra y borra el fichero y suelta las proyecciones.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (cerrado) {
+            return;
+        }
+        cerrado = true;
+        total = 0;
+        segmentos = new ByteBuffer[0];
+        if (canal != null) {
+            canal.close();
+            canal = null;
+        }
+    }
+
+    int ejemplar(int registro) {
+        return leer(registro, EJEMPLAR);
+    }
+
+    int usuario(int registro) {
+        return leer(registro, USUARIO);
+    }
+
+    int inicio(int registro) {
+        return leer(registro, INICIO);
+    }
+
+    int limite(int registro) {
+        return leer(registro, LIMITE);
+    }
+
+    int devolucion(int registro) {
+        return leer(registro, DEVOLUCION);
+    }
+
+    /**
+     * Filas del usuario en el orden en que se devolvieron.
+     */
+    int[] registrosDeUsuario(int usuario) {
+        int ultimo;
+        synchronized (this) {
+            ultimo = usuario < ultimoPorUsuario.length ? ultimoPorUsuario[usuario] : SIN_REGISTRO;
+        }
+        return encadenados(ultimo, ANTERIOR_USUARIO);
+    }
+
+    /**
+     * Filas del ejemplar en el orden en que se devolvieron.
+     */
+    int[] registrosDeEjemplar(int ejemplar) {
+        int ultimo;
+        synchronized (this) {
+            ultimo = ejemplar < ultimoPorEjemplar.length ? ultimoPorEjemplar[ejemplar] : SIN_REGISTRO;
+        }
+        return encadenados(ultimo, ANTERIOR_EJEMPLAR);
+    }
+
+    /**
+     * Filas cuyo inicio esta entre los dos dias, ambos incluidos, saltando los
+     * segmentos que no pueden contener ninguna.
+     */
+    int[] registrosIniciadosEntre(int desde, int hasta) {
+        int limite;
+        int[] minimos;
+        int[] maximos;
+        synchronized (this) {
+            limite = total;
+            minimos = minimoInicio.clone();
+            maximos = maximoInicio.clone();
+        }
+        int[] resultado = new int[16];
+        int encontrados = 0;
+        for (int segmento = 0; segmento < minimos.length; segmento++) {
+            if (maximos[segmento] < desde || minimos[segmento] > hasta) {
+                continue;
+            }
+            int primero = segmento << BITS_SEGMENTO;
+            int fin = Math.min(limite, primero + REGISTROS_POR_SEGMENTO);
+            for (int registro = primero; registro < fin; registro++) {
+                int inicio = inicio(registro);
+                if (inicio >= desde && inicio <= hasta) {
+                    if (encontrados == resultado.length) {
+                        resultado = Arrays.copyOf(resultado, encontrados * 2);
+                    }
+                    resultado[encontrados++] = registro;
+                }
+            }
+        }
+        return Arrays.copyOf(resultado, encontrados);
+    }
+
+    private int[] encadenados(int ultimo, int columnaAnterior) {
+        int[] resultado = new int[8];
+        int encontrados = 0;
+        for (int registro = ultimo; registro != SIN_REGISTRO; registro = leer(registro, columnaAnterior)) {
+            if (encontrados == resultado.length) {
+                resultado = Arrays.copyOf(resultado, encontrados * 2);
+            }
+            resultado[encontrados++] = registro;
+        }
+        // La cadena va de la fila mas reciente a la mas antigua.
+        for (int i = 0, j = encontrados - 1; i < j; i++, j--) {
+            int aux = resultado[i];
+            resultado[i] = resultado[j];
+            resultado[j] = aux;
+        }
+        return Arrays.copyOf(resultado, encontrados);
+    }
+
+    private int leer(int registro, int columna) {
+        // Se lee primero el total: los segmentos se publican antes que las filas.
+        if (registro < 0 || registro >= total) {
+            throw new IllegalArgumentException("No existe el registro " + registro + " del archivo");
+        }
+        return segmentos[registro >>> BITS_SEGMENTO].getInt(posicion(columna, registro & MASCARA_SEGMENTO));
+    }
+
+    private static void escribir(ByteBuffer datos, int columna, int fila, int valor) {
+        datos.putInt(posicion(columna, fila), valor);
+    }
+
+    private static int posicion(int columna, int fila) {
+        return (columna * REGISTROS_POR_SEGMENTO + fila) * Integer.BYTES;
+    }
+
+    private void ampliar() {
+        int segmento = segmentos.length;
+        try {
+            if (canal == null) {
+                canal = FileChannel.open(Files.createTempFile("biblioteca-prestamos", ".archivo"),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            }
+            // Proyectar mas alla del final amplia el fichero.
+            ByteBuffer datos = canal.map(FileChannel.MapMode.READ_WRITE, segmento * BYTES_SEGMENTO, BYTES_SEGMENTO);
+            segmentos = Arrays.copyOf(segmentos, segmento + 1);
+            segmentos[segmento] = datos;
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo ampliar el archivo de prestamos", e);
+        }
+        minimoInicio = Arrays.copyOf(minimoInicio, segmento + 1);
+        minimoInicio[segmento] = Integer.MAX_VALUE;
+        maximoInicio = Arrays.copyOf(maximoInicio, segmento + 1);
+        maximoInicio[segmento] = Integer.MIN_VALUE;
+    }
+
+    private static int[] asegurar(int[] ultimos, int numero) {
+        if (numero < ultimos.length) {
+            return ultimos;
+        }
+        int anterior = ultimos.length;
+        int[] nuevos = Arrays.copyOf(ultimos, Math.max(numero + 1, Math.max(16, anterior * 2)));
+        Arrays.fill(nuevos, anterior, nuevos.length, SIN_REGISTRO);
+        return nuevos;
+    }
+}
@@ -2,16 +2,21 @@ package biblioteca;
 
 /**
  * Representa a un autor de un libro.
+ *
+ * <p>Dos autores son iguales si coinciden nombre y apellidos sin contar
+ * mayusculas ni espacios repetidos; esa clave se calcula una vez al crearlo.
  */
 public final class Autor {
     private final String nombre;
     private final String apellidos;
     private final String nacionalidad;
+    private final String clave;
 
     public Autor(String nombre, String apellidos, String nacionalidad) {
         this.nombre = validarTexto(nombre, "El nombre del autor es obligatorio");
         this.apellidos = validarTexto(apellidos, "Los apellidos del autor son obligatorios");
         this.nacionalidad = nacionalidad == null ? "" : nacionalidad.trim();
+        this.clave = normalizar(this.apellidos) + '\u0000' + normalizar(this.nombre);
     }
 
     private String validarTexto(String valor, String mensaje) {
@@ -82,18 +87,45 @@ public final class Autor {
         if (!(obj instanceof Autor other)) {
             return false;
         }
-        return normalizar(nombre).equals(normalizar(other.nombre))
-                && normalizar(apellidos).equals(normalizar(other.apellidos));
+        return clave.equals(other.clave);
     }
 
     @Override
     public int hashCode() {
-        int result = normalizar(nombre).hashCode();
-        result = 31 * result + normalizar(apellidos).hashCode();
-        return result;
+        return clave.hashCode();
     }
 
-    private String normalizar(String valor) {
-        return valor.trim().replaceAll("\\s+", " ").toLowerCase();
+    /**
+     * En minusculas y con cada racha de espacios reducida a uno, sin
+     * expresiones regulares: los valores ya llegan sin espacios laterales.
+     */
+    private static String normalizar(String valor) {
+        boolean colapsar = false;
+        for (int i = 0; i < valor.length() && !colapsar; i++) {
+            char c = valor.charAt(i);
+            colapsar = esEspacio(c) && (c != ' ' || i + 1 == valor.length() || esEspacio(valor.charAt(i + 1)));
+        }
+        if (!colapsar) {
+            return valor.toLowerCase();
+        }
+        StringBuilder sb = new StringBuilder(valor.length());
+        boolean enEspacio = false;
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            if (esEspacio(c)) {
+                enEspacio = true;
+            } else {
+                if (enEspacio) {
+                    sb.append(' ');
+                    enEspacio = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString().toLowerCase();
+    }
+
+    private static boolean esEspacio(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 }
@@ -1,26 +1,87 @@
 package biblioteca;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
 
 /**
  * Gestiona libros, usuarios y prestamos de la biblioteca.
+ *
+ * <p>Puede compartirse entre varios mostradores de prestamo. Las consultas y
+ * los listados no bloquean nunca y ven los datos tal como estan en ese
+ * momento. Las altas y bajas del catalogo se hacen de una en una, y los
+ * prestamos y devoluciones bloquean solo el ejemplar y el usuario afectados,
+ * de modo que operaciones sobre ejemplares y usuarios distintos avanzan en
+ * paralelo.
+ *
+ * <p>En memoria solo se guardan los prestamos activos; los devueltos pasan a
+ * un {@link ArchivoPrestamos} fuera del heap y se reconstruyen al consultarlos.
+ * Ese archivo usa un fichero temporal que se borra con {@link #close()}.
  */
-public class Biblioteca {
-    public static final int MAX_LIBROS = 2000;
-    public static final int MAX_USUARIOS = 1000;
-    public static final int MAX_PRESTAMOS = 10000;
+public class Biblioteca implements AutoCloseable {
+    public static final int CAPACIDAD_INICIAL = 64;
+    public static final int MAX_RESULTADOS_PAGINA = 1000;
+
+    private static final Comparator<Libro> ORDEN_LIBROS =
+            Comparator.<Libro>naturalOrder().thenComparingLong(Libro::getIsbnNumerico);
+    private static final Comparator<Libro> ORDEN_CATALOGO = Comparator.comparingLong(Libro::getOrdenAlta);
+    private static final Comparator<Usuario> ORDEN_USUARIOS =
+            Comparator.comparing(Usuario::getId, String.CASE_INSENSITIVE_ORDER);
+    private static final int TOTAL_CERROJOS = 64;
+    private static final long SIN_MEDIDA = Long.MIN_VALUE;
+    private static final int SIN_CIERRE_MULTAS = Integer.MIN_VALUE;
 
     private final String nombre;
     private final Direccion direccion;
-    private final Libro[] libros;
-    private int totalLibros;
-    private final Usuario[] usuarios;
-    private int totalUsuarios;
-    private final Prestamo[] prestamos;
-    private int totalPrestamos;
+    private final ListaSegmentada<Libro> libros;
+    private final ListaSegmentada<Usuario> usuarios;
+    private final ArchivoPrestamos archivo;
+    private final Numeracion<Ejemplar> ejemplaresNumerados;
+    private final Numeracion<Usuario> usuariosNumerados;
+    private final MapaIsbn librosPorIsbn;
+    private final Map<String, Usuario> usuariosPorId;
+    private final Map<String, Ejemplar> ejemplaresPorCodigo;
+    private final IndiceTexto indiceTexto;
+    private final RegistroAutores autores;
+    private final Vencimientos vencimientos;
+    private final ReentrantLock cerrojoCatalogo;
+    private final ReentrantLock[] cerrojosCirculacion;
+    // Altas de libros hechas; da el orden del catalogo. Protegido por cerrojoCatalogo.
+    private long altasLibros;
+    // Cuenta las instantaneas marcadas; se cambia con todos los cerrojos de
+    // circulacion tomados y se lee con alguno.
+    private int epocaInstantanea;
+    private volatile Diario diario;
+    private volatile Consumer<Prestamo> avisoVencimiento;
+    private volatile Metricas metricas;
+    private volatile Clock reloj;
+    private volatile TarifaMultas tarifaMultas;
+    // Dia del ultimo cierre diario de multas.
+    private volatile int diaMultas;
 
     public Biblioteca(String nombre, Direccion direccion) {
+        this(nombre, direccion, CAPACIDAD_INICIAL);
+    }
+
+    public Biblioteca(String nombre, Direccion direccion, int capacidadInicial) {
         if (nombre == null || nombre.trim().isEmpty()) {
             throw new IllegalArgumentException("El nombre de la biblioteca es obligatorio");
         }
@@ -29,9 +90,28 @@ public class Biblioteca {
         }
         this.nombre = nombre.trim();
         this.direccion = direccion;
-        this.libros = new Libro[MAX_LIBROS];
-        this.usuarios = new Usuario[MAX_USUARIOS];
-        this.prestamos = new Prestamo[MAX_PRESTAMOS];
+        if (capacidadInicial <= 0) {
+            throw new IllegalArgumentException("La capacidad inicial debe ser mayor que cero");
+        }
+        this.libros = new ListaSegmentada<>(capacidadInicial, true);
+        this.usuarios = new ListaSegmentada<>(capacidadInicial, true);
+        this.archivo = new ArchivoPrestamos();
+        this.ejemplaresNumerados = new Numeracion<>(capacidadInicial);
+        this.usuariosNumerados = new Numeracion<>(capacidadInicial);
+        this.librosPorIsbn = new MapaIsbn(capacidadInicial);
+        this.usuariosPorId = new ConcurrentHashMap<>();
+        this.ejemplaresPorCodigo = new ConcurrentHashMap<>();
+        this.indiceTexto = new IndiceTexto();
+        this.autores = new RegistroAutores();
+        this.vencimientos = new Vencimientos();
+        this.cerrojoCatalogo = new ReentrantLock();
+        this.reloj = Clock.systemDefaultZone();
+        this.tarifaMultas = TarifaMultas.SIN_MULTAS;
+        this.diaMultas = SIN_CIERRE_MULTAS;
+        this.cerrojosCirculacion = new ReentrantLock[TOTAL_CERROJOS];
+        for (int i = 0; i < TOTAL_CERROJOS; i++) {
+            cerrojosCirculacion[i] = new ReentrantLock();
+        }
     }
 
     public String getNombre() {
@@ -42,29 +122,139 @@ public class Biblioteca {
         return direccion;
     }
 
+    /**
+     * Cambia el reloj con el que se decide que dia es hoy, por ejemplo por uno
+     * fijo en las pruebas.
+     */
+    public void setReloj(Clock reloj) {
+        if (reloj == null) {
+            throw new IllegalArgumentException("El reloj es obligatorio");
+        }
+        this.reloj = reloj;
+    }
+
+    public Clock getReloj() {
+        return reloj;
+    }
+
+    /**
+     * Dia de hoy segun el reloj de la biblioteca. Es la fecha que usan los
+     * prestamos cuando no se les da otra.
+     */
+    public LocalDate hoy() {
+        return LocalDate.now(reloj);
+    }
+
     public void altaLibro(Libro libro) {
         if (libro == null) {
             throw new IllegalArgumentException("El libro es obligatorio");
         }
-        if (totalLibros >= MAX_LIBROS) {
-            throw new IllegalArgumentException("No se pueden registrar mas libros");
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            registrarLibro(libro);
+            registro = anotar(d -> d.altaLibro(libro));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        if (buscarLibroPorIsbn(libro.getIsbn()) != null) {
-            throw new IllegalArgumentException("Ya existe un libro con ese ISBN");
+        confirmar(registro);
+    }
+
+    /**
+     * Da de alta un lote de libros tomando el cerrojo del catalogo una sola
+     * vez y esperando al diario solo por el ultimo registro. Un libro que no
+     * se puede registrar se pasa a {@code rechazados} con el motivo y no
+     * impide registrar los demas.
+     *
+     * @return numero de libros registrados
+     */
+    public int altaLibros(List<Libro> lote, BiConsumer<Libro, String> rechazados) {
+        if (lote == null || rechazados == null) {
+            throw new IllegalArgumentException("El lote y el destino de los rechazados son obligatorios");
+        }
+        int registrados = 0;
+        long registro = 0;
+        cerrojoCatalogo.lock();
+        try {
+            for (Libro libro : lote) {
+                try {
+                    if (libro == null) {
+                        throw new IllegalArgumentException("El libro es obligatorio");
+                    }
+                    registrarLibro(libro);
+                } catch (IllegalArgumentException e) {
+                    rechazados.accept(libro, e.getMessage());
+                    continue;
+                }
+                registro = anotar(d -> d.altaLibro(libro));
+                registrados++;
+            }
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        libros[totalLibros++] = libro;
+        confirmar(registro);
+        return registrados;
     }
 
-    public boolean bajaLibroPorIsbn(String isbn) {
-        int indice = indiceLibro(isbn);
-        if (indice == -1) {
-            return false;
+    private void registrarLibro(Libro libro) {
+        // Con el monitor del libro tomado, agregarEjemplar no puede guardar
+        // un ejemplar entre la copia de sus ejemplares y la publicacion.
+        synchronized (libro) {
+            if (libro.getBiblioteca() != null) {
+                throw new IllegalArgumentException("El libro ya esta registrado en una biblioteca");
+            }
+            if (librosPorIsbn.contiene(libro.getIsbnNumerico())) {
+                throw new IllegalArgumentException("Ya existe un libro con ese ISBN");
+            }
+            for (Autor autor : libro.getAutores()) {
+                autores.comprobar(autor);
+            }
+            Ejemplar[] ejemplares = libro.getEjemplares();
+            for (int i = 0; i < ejemplares.length; i++) {
+                String codigo = clave(ejemplares[i].getCodigo());
+                if (ejemplaresPorCodigo.containsKey(codigo)) {
+                    throw new IllegalArgumentException("Ya existe un ejemplar con ese codigo");
+                }
+                for (int j = 0; j < i; j++) {
+                    if (clave(ejemplares[j].getCodigo()).equals(codigo)) {
+                        throw new IllegalArgumentException("Ya existe un ejemplar con ese codigo");
+                    }
+                }
+            }
+            libro.setOrdenAlta(++altasLibros);
+            libros.agregar(libro);
+            librosPorIsbn.poner(libro);
+            for (Ejemplar ejemplar : ejemplares) {
+                ejemplaresPorCodigo.put(clave(ejemplar.getCodigo()), ejemplar);
+                ejemplar.setNumero(ejemplaresNumerados.asignar(ejemplar));
+            }
+            autores.indexar(libro);
+            indiceTexto.indexar(libro);
+            libro.setBiblioteca(this);
         }
-        if (libros[indice].tieneEjemplares()) {
-            throw new IllegalArgumentException("No se puede eliminar un libro con ejemplares");
+    }
+
+    public boolean bajaLibroPorIsbn(String isbn) {
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            Libro libro = buscarLibroPorIsbn(isbn);
+            if (libro == null) {
+                return false;
+            }
+            if (libro.tieneEjemplares()) {
+                throw new IllegalArgumentException("No se puede eliminar un libro con ejemplares");
+            }
+            libros.eliminar(libro);
+            librosPorIsbn.quitar(libro.getIsbnNumerico());
+            autores.desindexar(libro);
+            indiceTexto.desindexar(libro);
+            libro.setBiblioteca(null);
+            registro = anotar(d -> d.bajaLibro(libro.getIsbn()));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        eliminarElemento(libros, indice, totalLibros);
-        totalLibros--;
+        confirmar(registro);
         return true;
     }
 
@@ -72,77 +262,292 @@ public class Biblioteca {
         if (usuario == null) {
             throw new IllegalArgumentException("El usuario es obligatorio");
         }
-        if (totalUsuarios >= MAX_USUARIOS) {
-            throw new IllegalArgumentException("No se pueden registrar mas usuarios");
-        }
-        if (buscarUsuarioPorId(usuario.getId()) != null) {
-            throw new IllegalArgumentException("Ya existe un usuario con ese id");
+        String clave = clave(usuario.getId());
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            if (usuario.getBiblioteca() != null) {
+                throw new IllegalArgumentException("El usuario ya esta registrado en una biblioteca");
+            }
+            if (usuariosPorId.containsKey(clave)) {
+                throw new IllegalArgumentException("Ya existe un usuario con ese id");
+            }
+            usuarios.agregar(usuario);
+            usuariosPorId.put(clave, usuario);
+            numerar(usuario);
+            // Con el monitor, un cambio de datos o se hace antes y entra en el
+            // registro de alta o espera al cerrojo y se anota despues.
+            synchronized (usuario) {
+                usuario.setBiblioteca(this);
+            }
+            registro = anotar(d -> d.altaUsuario(usuario));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        usuarios[totalUsuarios++] = usuario;
+        confirmar(registro);
     }
 
     public boolean bajaUsuario(String id) {
-        int indice = indiceUsuario(id);
-        if (indice == -1) {
+        if (id == null) {
             return false;
         }
-        if (usuarios[indice].getPrestamosActivos().length > 0) {
-            throw new IllegalArgumentException("El usuario tiene prestamos activos");
+        cerrojoCatalogo.lock();
+        // El cerrojo del usuario impide que un prestamo simultaneo lo deje con
+        // un prestamo activo despues de comprobar que no tiene ninguno.
+        ReentrantLock cerrojoUsuario = cerrojosCirculacion[indiceCerrojo(clave(id))];
+        cerrojoUsuario.lock();
+        long registro;
+        try {
+            Usuario usuario = buscarUsuarioPorId(id);
+            if (usuario == null) {
+                return false;
+            }
+            if (usuario.getPrestamosActivos().length > 0) {
+                throw new IllegalArgumentException("El usuario tiene prestamos activos");
+            }
+            if (usuario.getTotalReservas() > 0) {
+                throw new IllegalArgumentException("El usuario tiene reservas pendientes");
+            }
+            if (usuario.getSaldoMultas() > 0) {
+                throw new IllegalArgumentException("El usuario tiene multas pendientes");
+            }
+            usuarios.eliminar(usuario);
+            usuariosPorId.remove(clave(usuario.getId()));
+            usuario.setBiblioteca(null);
+            registro = anotar(d -> d.bajaUsuario(usuario.getId()));
+        } finally {
+            cerrojoUsuario.unlock();
+            cerrojoCatalogo.unlock();
         }
-        eliminarElemento(usuarios, indice, totalUsuarios);
-        totalUsuarios--;
+        confirmar(registro);
         return true;
     }
 
-    public Libro buscarLibroPorIsbn(String isbn) {
-        if (isbn == null) {
-            return null;
+    /**
+     * Da de baja en una sola pasada a todos los usuarios que cumplen el criterio.
+     * Se conservan, aunque lo cumplan, los que tienen prestamos activos,
+     * reservas pendientes o multas sin pagar, las mismas condiciones que
+     * hacen fallar {@link #bajaUsuario(String)}.
+     *
+     * @return numero de usuarios eliminados
+     */
+    public int bajaUsuarios(Predicate<Usuario> criterio) {
+        if (criterio == null) {
+            throw new IllegalArgumentException("El criterio es obligatorio");
         }
-        String buscado = isbn.trim();
-        for (int i = 0; i < totalLibros; i++) {
-            if (libros[i].getIsbn().equalsIgnoreCase(buscado)) {
-                return libros[i];
-            }
+        long[] registro = new long[1];
+        int eliminados;
+        cerrojoCatalogo.lock();
+        bloquearTodos();
+        try {
+            eliminados = usuarios.eliminarSi(usuario -> {
+                if (usuario.getPrestamosActivos().length > 0 || usuario.getTotalReservas() > 0
+                        || usuario.getSaldoMultas() > 0 || !criterio.test(usuario)) {
+                    return false;
+                }
+                usuariosPorId.remove(clave(usuario.getId()));
+                usuario.setBiblioteca(null);
+                registro[0] = anotar(d -> d.bajaUsuario(usuario.getId()));
+                return true;
+            });
+        } finally {
+            desbloquearTodos();
+            cerrojoCatalogo.unlock();
         }
-        return null;
+        confirmar(registro[0]);
+        return eliminados;
+    }
+
+    public Libro buscarLibroPorIsbn(String isbn) {
+        return librosPorIsbn.obtener(Isbn.buscar(isbn));
     }
 
     public Libro[] buscarLibros(String texto) {
-        Libro[] resultado = new Libro[totalLibros];
+        long inicio = empezarMedida();
+        boolean correcta = false;
+        try {
+            Libro[] resultado = buscarLibrosSinMedir(texto);
+            correcta = true;
+            return resultado;
+        } finally {
+            terminarMedida(Metricas.Operacion.BUSCAR_LIBROS, inicio, correcta);
+        }
+    }
+
+    private Libro[] buscarLibrosSinMedir(String texto) {
+        if (texto == null || texto.trim().isEmpty()) {
+            return new Libro[0];
+        }
+        String patron = Textos.normalizar(texto);
+        if (IndiceTexto.admitePatron(patron)) {
+            // El indice los entrega sin orden; se dejan en el del catalogo,
+            // igual que el recorrido de los patrones cortos.
+            Libro[] encontrados = indiceTexto.buscar(patron).toArray(new Libro[0]);
+            Arrays.sort(encontrados, ORDEN_CATALOGO);
+            return encontrados;
+        }
+        Libro[] resultado = new Libro[libros.tamanio()];
         int contador = 0;
-        for (int i = 0; i < totalLibros; i++) {
-            if (libros[i].matches(texto)) {
-                resultado[contador++] = libros[i];
+        for (Libro libro : libros) {
+            if (libro.coincideCon(patron)) {
+                resultado[contador++] = libro;
             }
         }
         return Arrays.copyOf(resultado, contador);
     }
 
+    /**
+     * Libros con alguna palabra del titulo o de los autores que empieza por el
+     * texto indicado, sin distinguir tildes ni mayusculas, en el orden del catalogo.
+     */
+    public Libro[] buscarLibrosPorPrefijo(String prefijo) {
+        if (prefijo == null || prefijo.trim().isEmpty()) {
+            return new Libro[0];
+        }
+        Libro[] encontrados = indiceTexto.buscarPorPrefijo(Textos.normalizar(prefijo)).toArray(new Libro[0]);
+        Arrays.sort(encontrados, ORDEN_CATALOGO);
+        return encontrados;
+    }
+
+    /**
+     * Libros del autor, igual a efectos de {@link Autor#equals(Object)},
+     * ordenados por titulo y anio.
+     */
+    public Libro[] buscarLibrosPorAutor(Autor autor) {
+        if (autor == null) {
+            return new Libro[0];
+        }
+        Libro[] resultado = autores.libros(autor).toArray(new Libro[0]);
+        Arrays.sort(resultado, ORDEN_LIBROS);
+        return resultado;
+    }
+
+    /**
+     * Autor del catalogo igual al indicado, con la nacionalidad con la que se
+     * registro, o {@code null} si no tiene libros.
+     */
+    public Autor buscarAutor(String nombre, String apellidos) {
+        return autores.registrado(new Autor(nombre, apellidos, ""));
+    }
+
+    /**
+     * Busca libros como {@link #buscarLibros(String)} pero devuelve solo una
+     * pagina de resultados ordenada por relevancia: primero los que tienen el
+     * texto como palabra completa del titulo, despues los que lo contienen en
+     * el titulo y por ultimo los que solo coinciden por autor. A igual
+     * relevancia se ordenan por titulo y anio.
+     */
+    public PaginaResultados<Libro> buscarLibros(String texto, int desde, int limite) {
+        long inicio = empezarMedida();
+        boolean correcta = false;
+        try {
+            PaginaResultados<Libro> resultado = buscarLibrosSinMedir(texto, desde, limite);
+            correcta = true;
+            return resultado;
+        } finally {
+            terminarMedida(Metricas.Operacion.BUSCAR_LIBROS, inicio, correcta);
+        }
+    }
+
+    private PaginaResultados<Libro> buscarLibrosSinMedir(String texto, int desde, int limite) {
+        validarPagina(desde, limite);
+        if (texto == null || texto.trim().isEmpty()) {
+            return new PaginaResultados<>(List.of(), desde, 0);
+        }
+        String patron = Textos.normalizar(texto);
+        SeleccionTopK<Libro> seleccion = new SeleccionTopK<>(desde + limite, ORDEN_LIBROS);
+        if (IndiceTexto.admitePatron(patron)) {
+            indiceTexto.recorrer(patron, libro -> seleccion.ofrecer(libro, relevancia(libro, patron)));
+        } else {
+            for (Libro libro : libros) {
+                if (libro.coincideCon(patron)) {
+                    seleccion.ofrecer(libro, relevancia(libro, patron));
+                }
+            }
+        }
+        return pagina(seleccion, desde);
+    }
+
     public Usuario buscarUsuarioPorId(String id) {
         if (id == null) {
             return null;
         }
-        String buscado = id.trim();
-        for (int i = 0; i < totalUsuarios; i++) {
-            if (usuarios[i].getId().equalsIgnoreCase(buscado)) {
-                return usuarios[i];
-            }
-        }
-        return null;
+        return usuariosPorId.get(clave(id));
     }
 
     public Usuario[] buscarUsuarios(String texto) {
-        Usuario[] resultado = new Usuario[totalUsuarios];
+        long inicio = empezarMedida();
+        boolean correcta = false;
+        try {
+            Usuario[] resultado = buscarUsuariosSinMedir(texto);
+            correcta = true;
+            return resultado;
+        } finally {
+            terminarMedida(Metricas.Operacion.BUSCAR_USUARIOS, inicio, correcta);
+        }
+    }
+
+    private Usuario[] buscarUsuariosSinMedir(String texto) {
+        if (texto == null || texto.trim().isEmpty()) {
+            return new Usuario[0];
+        }
+        String patron = Textos.normalizar(texto);
+        Usuario[] resultado = new Usuario[usuarios.tamanio()];
         int contador = 0;
-        for (int i = 0; i < totalUsuarios; i++) {
-            if (usuarios[i].matches(texto)) {
-                resultado[contador++] = usuarios[i];
+        for (Usuario usuario : usuarios) {
+            if (usuario.coincideCon(patron)) {
+                resultado[contador++] = usuario;
             }
         }
         return Arrays.copyOf(resultado, contador);
     }
 
+    /**
+     * Busca usuarios como {@link #buscarUsuarios(String)} pero devuelve solo una
+     * pagina de resultados: primero el usuario cuyo id coincide exactamente,
+     * despues los que lo contienen en el nombre y por ultimo el resto, cada
+     * grupo ordenado por id.
+     */
+    public PaginaResultados<Usuario> buscarUsuarios(String texto, int desde, int limite) {
+        long inicio = empezarMedida();
+        boolean correcta = false;
+        try {
+            PaginaResultados<Usuario> resultado = buscarUsuariosSinMedir(texto, desde, limite);
+            correcta = true;
+            return resultado;
+        } finally {
+            terminarMedida(Metricas.Operacion.BUSCAR_USUARIOS, inicio, correcta);
+        }
+    }
+
+    private PaginaResultados<Usuario> buscarUsuariosSinMedir(String texto, int desde, int limite) {
+        validarPagina(desde, limite);
+        if (texto == null || texto.trim().isEmpty()) {
+            return new PaginaResultados<>(List.of(), desde, 0);
+        }
+        String patron = Textos.normalizar(texto);
+        SeleccionTopK<Usuario> seleccion = new SeleccionTopK<>(desde + limite, ORDEN_USUARIOS);
+        for (Usuario usuario : usuarios) {
+            if (usuario.coincideCon(patron)) {
+                seleccion.ofrecer(usuario, relevancia(usuario, patron));
+            }
+        }
+        return pagina(seleccion, desde);
+    }
+
     public Prestamo prestar(String codigoEjemplar, String idUsuario, LocalDate fecha) {
+        long inicio = empezarMedida();
+        boolean correcta = false;
+        try {
+            Prestamo resultado = prestarSinMedir(codigoEjemplar, idUsuario, fecha);
+            correcta = true;
+            return resultado;
+        } finally {
+            terminarMedida(Metricas.Operacion.PRESTAR, inicio, correcta);
+        }
+    }
+
+    private Prestamo prestarSinMedir(String codigoEjemplar, String idUsuario, LocalDate fecha) {
         if (fecha == null) {
             throw new IllegalArgumentException("La fecha del prestamo es obligatoria");
         }
@@ -150,77 +555,662 @@ public class Biblioteca {
         if (ejemplar == null) {
             throw new IllegalArgumentException("No existe un ejemplar con ese codigo");
         }
-        if (ejemplar.getEstado() != EstadoLibro.DISPONIBLE) {
-            throw new IllegalArgumentException("El ejemplar no esta disponible");
-        }
         Usuario usuario = buscarUsuarioPorId(idUsuario);
         if (usuario == null) {
             throw new IllegalArgumentException("No existe un usuario con ese id");
         }
-        if (!usuario.puedePedir()) {
-            throw new IllegalArgumentException("El usuario ya tiene el maximo de prestamos");
-        }
-        if (totalPrestamos >= MAX_PRESTAMOS) {
-            throw new IllegalArgumentException("No se pueden registrar mas prestamos");
+        Prestamo prestamo;
+        long registro;
+        bloquear(ejemplar, usuario);
+        try {
+            if (ejemplar.getEstado() != EstadoLibro.DISPONIBLE) {
+                throw new IllegalArgumentException("El ejemplar no esta disponible");
+            }
+            if (buscarUsuarioPorId(idUsuario) != usuario) {
+                throw new IllegalArgumentException("No existe un usuario con ese id");
+            }
+            boolean reservado = atiendeReserva(ejemplar, usuario);
+            if (!reservado && !usuario.puedePedir()) {
+                throw new IllegalArgumentException("El usuario ya tiene el maximo de prestamos");
+            }
+            prestamo = new Prestamo(ejemplar, usuario, fecha);
+            if (reservado) {
+                consumirReserva(ejemplar, usuario);
+            }
+            registro = anotar(d -> d.prestamo(prestamo));
+        } finally {
+            desbloquear(ejemplar, usuario);
         }
-        Prestamo prestamo = new Prestamo(ejemplar, usuario, fecha);
-        prestamos[totalPrestamos++] = prestamo;
+        confirmar(registro);
         return prestamo;
     }
 
+    /**
+     * Devuelve el ejemplar y, si su libro tiene reservas, se lo presta en el
+     * mismo dia al primer usuario que lo espera.
+     */
     public boolean devolver(String codigoEjemplar, LocalDate fecha) {
+        long inicio = empezarMedida();
+        boolean correcta = false;
+        try {
+            boolean devuelto = devolver(codigoEjemplar, fecha, true);
+            correcta = true;
+            return devuelto;
+        } finally {
+            terminarMedida(Metricas.Operacion.DEVOLVER, inicio, correcta);
+        }
+    }
+
+    /**
+     * Sin asignar las reservas lo usa el diario, que reproduce cada
+     * asignacion con su propio registro.
+     */
+    boolean devolver(String codigoEjemplar, LocalDate fecha, boolean asignarReservas) {
         if (codigoEjemplar == null || fecha == null) {
             throw new IllegalArgumentException("Datos de devolucion invalidos");
         }
-        for (int i = totalPrestamos - 1; i >= 0; i--) {
-            Prestamo prestamo = prestamos[i];
-            if (!prestamo.isDevuelto()
-                    && prestamo.getEjemplar().getCodigo().equalsIgnoreCase(codigoEjemplar.trim())) {
-                prestamo.marcarDevuelto(fecha);
+        Ejemplar ejemplar = buscarEjemplarPorCodigo(codigoEjemplar);
+        if (ejemplar == null) {
+            return false;
+        }
+        while (true) {
+            Prestamo prestamo = ejemplar.getPrestamoActivo();
+            if (prestamo == null) {
+                return false;
+            }
+            Usuario usuario = prestamo.getUsuario();
+            boolean devuelto = false;
+            long registro = 0;
+            bloquear(ejemplar, usuario);
+            try {
+                // Otro mostrador pudo cerrar el prestamo antes de bloquearlo.
+                if (ejemplar.getPrestamoActivo() == prestamo) {
+                    prestamo.marcarDevuelto(fecha);
+                    registro = anotar(d -> d.devolucion(ejemplar.getCodigo(), fecha));
+                    devuelto = true;
+                }
+            } finally {
+                desbloquear(ejemplar, usuario);
+            }
+            if (devuelto) {
+                confirmar(registro);
+                if (asignarReservas) {
+                    asignarReserva(ejemplar, fecha);
+                }
                 return true;
             }
         }
-        return false;
+    }
+
+    /**
+     * Presta de una vez varios ejemplares a un usuario, tomando los cerrojos
+     * de todos juntos. Se prestan todos o ninguno: si algun codigo no existe,
+     * esta repetido o no esta disponible, o el usuario no puede llevarse
+     * tantos, se lanza la excepcion sin prestar nada.
+     */
+    public Prestamo[] prestarLote(String idUsuario, List<String> codigos, LocalDate fecha) {
+        if (fecha == null) {
+            throw new IllegalArgumentException("La fecha del prestamo es obligatoria");
+        }
+        if (codigos == null || codigos.isEmpty()) {
+            throw new IllegalArgumentException("Debe indicar al menos un ejemplar");
+        }
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (usuario == null) {
+            throw new IllegalArgumentException("No existe un usuario con ese id");
+        }
+        // Las reservas que atienda el lote dejan de contar para el maximo.
+        if (codigos.size() > usuario.prestamosDisponibles() + usuario.getTotalReservas()) {
+            throw new IllegalArgumentException("El usuario ya tiene el maximo de prestamos");
+        }
+        Ejemplar[] ejemplares = new Ejemplar[codigos.size()];
+        long cerrojos = mascaraCerrojo(usuario.getId());
+        for (int i = 0; i < ejemplares.length; i++) {
+            Ejemplar ejemplar = buscarEjemplarPorCodigo(codigos.get(i));
+            if (ejemplar == null) {
+                throw new IllegalArgumentException("No existe un ejemplar con el codigo " + codigos.get(i));
+            }
+            // El lote es como mucho del maximo de prestamos activos.
+            for (int j = 0; j < i; j++) {
+                if (ejemplares[j] == ejemplar) {
+                    throw new IllegalArgumentException("El ejemplar " + ejemplar.getCodigo() + " esta repetido");
+                }
+            }
+            ejemplares[i] = ejemplar;
+            cerrojos |= mascaraCerrojo(ejemplar.getCodigo());
+        }
+        Prestamo[] prestamos = new Prestamo[ejemplares.length];
+        boolean[] reservados = new boolean[ejemplares.length];
+        long registro = 0;
+        bloquear(cerrojos);
+        try {
+            if (buscarUsuarioPorId(idUsuario) != usuario) {
+                throw new IllegalArgumentException("No existe un usuario con ese id");
+            }
+            int atendidas = 0;
+            for (int i = 0; i < ejemplares.length; i++) {
+                Ejemplar ejemplar = ejemplares[i];
+                if (ejemplar.getEstado() != EstadoLibro.DISPONIBLE) {
+                    throw new IllegalArgumentException("El ejemplar " + ejemplar.getCodigo() + " no esta disponible");
+                }
+                reservados[i] = atiendeReserva(ejemplar, usuario);
+                for (int j = 0; j < i && reservados[i]; j++) {
+                    // Una reserva solo da derecho a un ejemplar del libro.
+                    if (reservados[j] && ejemplares[j].getLibro() == ejemplar.getLibro()) {
+                        throw new IllegalArgumentException("El libro tiene reservas pendientes");
+                    }
+                }
+                atendidas += reservados[i] ? 1 : 0;
+            }
+            if (ejemplares.length - atendidas > usuario.prestamosDisponibles()) {
+                throw new IllegalArgumentException("El usuario ya tiene el maximo de prestamos");
+            }
+            for (int i = 0; i < ejemplares.length; i++) {
+                Prestamo prestamo = new Prestamo(ejemplares[i], usuario, fecha);
+                prestamos[i] = prestamo;
+                if (reservados[i]) {
+                    consumirReserva(ejemplares[i], usuario);
+                }
+                registro = anotar(d -> d.prestamo(prestamo));
+            }
+        } finally {
+            desbloquear(cerrojos);
+        }
+        confirmar(registro);
+        return prestamos;
+    }
+
+    /**
+     * Devuelve de una vez varios ejemplares, tomando los cerrojos de todos
+     * juntos y esperando al diario una sola vez. Cada codigo se trata por
+     * separado: en la misma posicion del resultado se indica si el ejemplar
+     * estaba prestado y se ha devuelto. Las reservas se atienden como en
+     * {@link #devolver(String, LocalDate)}.
+     */
+    public boolean[] devolverLote(List<String> codigos, LocalDate fecha) {
+        if (codigos == null || fecha == null) {
+            throw new IllegalArgumentException("Datos de devolucion invalidos");
+        }
+        boolean[] devueltos = new boolean[codigos.size()];
+        Prestamo[] prestamos = new Prestamo[codigos.size()];
+        long cerrojos = 0;
+        for (int i = 0; i < prestamos.length; i++) {
+            Ejemplar ejemplar = buscarEjemplarPorCodigo(codigos.get(i));
+            Prestamo prestamo = ejemplar == null ? null : ejemplar.getPrestamoActivo();
+            if (prestamo != null) {
+                prestamos[i] = prestamo;
+                cerrojos |= mascaraCerrojo(ejemplar.getCodigo()) | mascaraCerrojo(prestamo.getUsuario().getId());
+            }
+        }
+        boolean[] reintentar = new boolean[prestamos.length];
+        long registro = 0;
+        bloquear(cerrojos);
+        try {
+            for (int i = 0; i < prestamos.length; i++) {
+                Prestamo prestamo = prestamos[i];
+                if (prestamo == null) {
+                    continue;
+                }
+                Ejemplar ejemplar = prestamo.getEjemplar();
+                Prestamo actual = ejemplar.getPrestamoActivo();
+                if (actual != prestamo) {
+                    // Otro mostrador lo devolvio y quiza lo volvio a prestar.
+                    reintentar[i] = actual != null;
+                    continue;
+                }
+                try {
+                    prestamo.marcarDevuelto(fecha);
+                } catch (IllegalArgumentException e) {
+                    continue;
+                }
+                registro = anotar(d -> d.devolucion(ejemplar.getCodigo(), fecha));
+                devueltos[i] = true;
+            }
+        } finally {
+            desbloquear(cerrojos);
+        }
+        confirmar(registro);
+        for (int i = 0; i < reintentar.length; i++) {
+            if (reintentar[i]) {
+                devueltos[i] = devolver(codigos.get(i), fecha);
+            } else if (devueltos[i]) {
+                asignarReserva(prestamos[i].getEjemplar(), fecha);
+            }
+        }
+        return devueltos;
+    }
+
+    /**
+     * Pone al usuario a la espera de un ejemplar del libro, que solo puede
+     * reservarse si todos sus ejemplares estan prestados. La reserva cuenta
+     * para el maximo de prestamos activos del usuario. Cuando se devuelve un
+     * ejemplar se presta al primero de la cola.
+     *
+     * @return posicion del usuario en la cola, empezando en 1
+     */
+    public int reservar(String isbn, String idUsuario) {
+        Libro libro = buscarLibroPorIsbn(isbn);
+        if (libro == null) {
+            throw new IllegalArgumentException("No existe un libro con ese ISBN");
+        }
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (usuario == null) {
+            throw new IllegalArgumentException("No existe un usuario con ese id");
+        }
+        // Con los ejemplares bloqueados ninguna devolucion puede dejar uno
+        // libre mientras el usuario entra en la cola.
+        long cerrojos = mascaraCerrojo(usuario.getId());
+        for (Ejemplar ejemplar : libro.getEjemplares()) {
+            cerrojos |= mascaraCerrojo(ejemplar.getCodigo());
+        }
+        int posicion;
+        long registro;
+        bloquear(cerrojos);
+        try {
+            if (buscarUsuarioPorId(idUsuario) != usuario) {
+                throw new IllegalArgumentException("No existe un usuario con ese id");
+            }
+            if (!libro.tieneEjemplares()) {
+                throw new IllegalArgumentException("El libro no tiene ejemplares");
+            }
+            if (libro.hayEjemplaresDisponibles()) {
+                throw new IllegalArgumentException("El libro tiene ejemplares disponibles");
+            }
+            if (!usuario.puedePedir()) {
+                throw new IllegalArgumentException("El usuario ya tiene el maximo de prestamos");
+            }
+            ColaReservas cola = libro.getReservas();
+            if (!cola.agregar(usuario, epocaInstantanea)) {
+                throw new IllegalArgumentException("El usuario ya tiene una reserva de ese libro");
+            }
+            usuario.agregarReserva();
+            posicion = cola.tamanio();
+            registro = anotar(d -> d.reserva(libro.getIsbn(), usuario.getId()));
+        } finally {
+            desbloquear(cerrojos);
+        }
+        confirmar(registro);
+        return posicion;
+    }
+
+    public boolean cancelarReserva(String isbn, String idUsuario) {
+        Libro libro = buscarLibroPorIsbn(isbn);
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (libro == null || usuario == null) {
+            return false;
+        }
+        long cerrojos = mascaraCerrojo(usuario.getId());
+        long registro;
+        bloquear(cerrojos);
+        try {
+            if (!libro.getReservas().quitar(usuario, epocaInstantanea)) {
+                return false;
+            }
+            usuario.quitarReserva();
+            registro = anotar(d -> d.cancelacionReserva(libro.getIsbn(), usuario.getId()));
+        } finally {
+            desbloquear(cerrojos);
+        }
+        confirmar(registro);
+        return true;
+    }
+
+    /**
+     * Usuarios que esperan un ejemplar del libro, del primero al ultimo.
+     */
+    public Usuario[] reservasLibro(String isbn) {
+        Libro libro = buscarLibroPorIsbn(isbn);
+        if (libro == null) {
+            throw new IllegalArgumentException("No existe un libro con ese ISBN");
+        }
+        return libro.getReservas().usuarios();
     }
 
     public Prestamo[] prestamosActivosUsuario(String idUsuario) {
         if (idUsuario == null || idUsuario.trim().isEmpty()) {
             throw new IllegalArgumentException("El id del usuario es obligatorio");
         }
-        String buscado = idUsuario.trim();
-        Prestamo[] coincidencias = new Prestamo[totalPrestamos];
-        int contador = 0;
-        for (int i = 0; i < totalPrestamos; i++) {
-            Prestamo prestamo = prestamos[i];
-            if (!prestamo.isDevuelto() && prestamo.getUsuario().getId().equalsIgnoreCase(buscado)) {
-                coincidencias[contador++] = prestamo;
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (usuario == null) {
+            return new Prestamo[0];
+        }
+        return usuario.getPrestamosActivos();
+    }
+
+    /**
+     * Prestamos activos cuya fecha limite es anterior a {@code fecha}, del que
+     * vence antes al que vence despues. Solo recorre los prestamos vencidos.
+     */
+    public Prestamo[] prestamosVencidos(LocalDate fecha) {
+        if (fecha == null) {
+            throw new IllegalArgumentException("La fecha es obligatoria");
+        }
+        return vencimientos.vencidos(fecha.toEpochDay()).toArray(new Prestamo[0]);
+    }
+
+    /**
+     * Indica a quien avisar cuando un prestamo activo pasa su fecha limite.
+     * Los avisos se dan al llamar a {@link #avisarVencimientos(LocalDate)};
+     * con {@code null} se dejan de dar.
+     */
+    public void setAvisoVencimiento(Consumer<Prestamo> aviso) {
+        this.avisoVencimiento = aviso;
+    }
+
+    /**
+     * Avisa de los prestamos activos que han vencido desde el aviso anterior
+     * hasta {@code hoy}, de modo que cada prestamo se avisa una sola vez. Esta
+     * pensado para llamarse una vez al dia.
+     *
+     * @return numero de prestamos avisados
+     */
+    public int avisarVencimientos(LocalDate hoy) {
+        if (hoy == null) {
+            throw new IllegalArgumentException("La fecha es obligatoria");
+        }
+        List<Prestamo> vencidos = vencimientos.nuevosVencidos(hoy.toEpochDay());
+        Consumer<Prestamo> aviso = avisoVencimiento;
+        if (aviso != null) {
+            for (Prestamo prestamo : vencidos) {
+                aviso.accept(prestamo);
             }
         }
-        return Arrays.copyOf(coincidencias, contador);
+        return vencidos.size();
+    }
+
+    /**
+     * Cambia la tarifa de multas y recalcula con ella, desde el historial, lo
+     * que ha generado cada usuario. Detiene la circulacion mientras dura. La
+     * tarifa se anota en el diario para que los saldos cuadren al arrancar.
+     */
+    public void setTarifaMultas(TarifaMultas tarifa) {
+        if (tarifa == null) {
+            throw new IllegalArgumentException("La tarifa es obligatoria");
+        }
+        long registro;
+        cerrojoCatalogo.lock();
+        bloquearTodos();
+        try {
+            tarifaMultas = tarifa;
+            recalcularMultas();
+            registro = anotar(d -> d.tarifaMultas(tarifa));
+        } finally {
+            desbloquearTodos();
+            cerrojoCatalogo.unlock();
+        }
+        confirmar(registro);
+    }
+
+    public TarifaMultas getTarifaMultas() {
+        return tarifaMultas;
+    }
+
+    /**
+     * Cierre diario de multas: carga a cada usuario lo que han crecido desde
+     * el cierre anterior las multas de sus prestamos activos vencidos en ese
+     * dia. Solo recorre los prestamos vencidos; las devoluciones con retraso
+     * cargan su multa al cerrarse, sin esperar al cierre.
+     *
+     * @return numero de prestamos vencidos revisados
+     */
+    public int cerrarDiaMultas(LocalDate hoy) {
+        int dia = Prestamo.diaDe(hoy, "La fecha es obligatoria");
+        diaMultas = dia;
+        int revisados = 0;
+        for (Prestamo prestamo : vencimientos.vencidos(dia)) {
+            Ejemplar ejemplar = prestamo.getEjemplar();
+            Usuario usuario = prestamo.getUsuario();
+            bloquear(ejemplar, usuario);
+            try {
+                if (ejemplar.getPrestamoActivo() == prestamo) {
+                    cargarMulta(prestamo, dia);
+                    revisados++;
+                }
+            } finally {
+                desbloquear(ejemplar, usuario);
+            }
+        }
+        return revisados;
+    }
+
+    /**
+     * Registra un pago de multas del usuario.
+     *
+     * @return lo que le queda por pagar, en centimos
+     */
+    public long pagarMulta(String idUsuario, long centimos) {
+        return pagarMulta(idUsuario, centimos, true);
+    }
+
+    /**
+     * Sin comprobar el saldo lo usa el diario: lo acumulado en los cierres
+     * diarios no se anota, asi que al reproducir un pago la deuda puede no
+     * estar cargada todavia.
+     */
+    long pagarMulta(String idUsuario, long centimos, boolean comprobarSaldo) {
+        if (centimos <= 0) {
+            throw new IllegalArgumentException("El importe del pago debe ser mayor que cero");
+        }
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (usuario == null) {
+            throw new IllegalArgumentException("No existe un usuario con ese id");
+        }
+        long cerrojos = mascaraCerrojo(usuario.getId());
+        long saldo;
+        long registro;
+        bloquear(cerrojos);
+        try {
+            if (buscarUsuarioPorId(idUsuario) != usuario) {
+                throw new IllegalArgumentException("No existe un usuario con ese id");
+            }
+            if (comprobarSaldo && centimos > usuario.getSaldoMultas()) {
+                throw new IllegalArgumentException("El pago supera lo que debe el usuario");
+            }
+            usuario.pagarMulta(centimos, epocaInstantanea);
+            saldo = usuario.getSaldoMultas();
+            registro = anotar(d -> d.pagoMulta(usuario.getId(), centimos));
+        } finally {
+            desbloquear(cerrojos);
+        }
+        confirmar(registro);
+        return saldo;
+    }
+
+    /**
+     * Recalcula desde el historial completo lo que ha generado cada usuario
+     * en multas, con la tarifa actual y hasta el ultimo cierre diario, y
+     * corrige los saldos que no cuadren. Los saldos se mantienen al dia sin
+     * llamarlo; sirve para auditarlos.
+     *
+     * @return numero de usuarios cuyo saldo se ha corregido
+     */
+    public int auditarMultas() {
+        cerrojoCatalogo.lock();
+        bloquearTodos();
+        try {
+            return recalcularMultas();
+        } finally {
+            desbloquearTodos();
+            cerrojoCatalogo.unlock();
+        }
+    }
+
+    /**
+     * Empieza a medir prestamos, devoluciones y busquedas, o devuelve las
+     * metricas ya activas.
+     */
+    public synchronized Metricas activarMetricas() {
+        if (metricas == null) {
+            metricas = new Metricas(this);
+        }
+        return metricas;
+    }
+
+    /**
+     * Deja de medir y retira las metricas de JMX si estaban publicadas.
+     */
+    public synchronized void desactivarMetricas() {
+        if (metricas != null) {
+            metricas.retirarDeJmx();
+            metricas = null;
+        }
+    }
+
+    /**
+     * Metricas activas, o {@code null} si no se esta midiendo.
+     */
+    public Metricas getMetricas() {
+        return metricas;
+    }
+
+    int getTotalLibros() {
+        return libros.tamanio();
+    }
+
+    int getTotalEjemplares() {
+        return ejemplaresPorCodigo.size();
+    }
+
+    int getTotalUsuarios() {
+        return usuarios.tamanio();
+    }
+
+    int getTotalPrestamosActivos() {
+        return vencimientos.tamanio();
+    }
+
+    int getTotalPrestamosVencidos() {
+        return vencimientos.contarVencidos(hoy().toEpochDay());
+    }
+
+    public Prestamo[] historialPrestamosUsuario(String idUsuario) {
+        if (idUsuario == null || idUsuario.trim().isEmpty()) {
+            throw new IllegalArgumentException("El id del usuario es obligatorio");
+        }
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (usuario == null) {
+            return new Prestamo[0];
+        }
+        return usuario.getHistorialPrestamos();
+    }
+
+    /**
+     * Prestamos ya devueltos del ejemplar, en el orden en que se devolvieron.
+     */
+    public Prestamo[] historialPrestamosEjemplar(String codigoEjemplar) {
+        if (codigoEjemplar == null || codigoEjemplar.trim().isEmpty()) {
+            throw new IllegalArgumentException("El codigo del ejemplar es obligatorio");
+        }
+        Ejemplar ejemplar = buscarEjemplarPorCodigo(codigoEjemplar);
+        if (ejemplar == null) {
+            return new Prestamo[0];
+        }
+        return archivados(archivo.registrosDeEjemplar(ejemplar.getNumero()));
+    }
+
+    /**
+     * Prestamos, devueltos o activos, que empezaron entre las dos fechas,
+     * ambas incluidas.
+     */
+    public Prestamo[] prestamosIniciadosEntre(LocalDate desde, LocalDate hasta) {
+        if (desde == null || hasta == null || hasta.isBefore(desde)) {
+            throw new IllegalArgumentException("El intervalo de fechas no es valido");
+        }
+        List<Prestamo> resultado = new ArrayList<>(Arrays.asList(archivados(
+                archivo.registrosIniciadosEntre((int) desde.toEpochDay(), (int) hasta.toEpochDay()))));
+        for (Prestamo prestamo : prestamosActivos()) {
+            int inicio = prestamo.getDiaInicio();
+            if (inicio >= desde.toEpochDay() && inicio <= hasta.toEpochDay()) {
+                resultado.add(prestamo);
+            }
+        }
+        return resultado.toArray(new Prestamo[0]);
     }
 
     public String listadoLibros() {
-        if (totalLibros == 0) {
+        if (libros.estaVacia()) {
             return "No hay libros registrados";
         }
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < totalLibros; i++) {
-            sb.append(libros[i].toString()).append(System.lineSeparator());
+        try {
+            listadoLibros(sb, FormatoListado.TEXTO);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return sb.toString();
     }
 
+    /**
+     * Escribe el listado de libros en {@code destino} a medida que recorre el
+     * catalogo, sin reunirlo antes en memoria. Con el catalogo vacio solo
+     * escribe la cabecera del CSV. No cierra el destino.
+     */
+    public void listadoLibros(Appendable destino, FormatoListado formato) throws IOException {
+        EscritorListado escritor = new EscritorListado(destino, formato);
+        escritor.cabeceraLibros();
+        for (Libro libro : libros) {
+            escritor.libro(libro);
+        }
+        escritor.terminar();
+    }
+
+    /**
+     * Igual que {@link #listadoLibros(Appendable, FormatoListado)} pero
+     * escribiendo en UTF-8 en un canal, que tampoco se cierra.
+     */
+    public void listadoLibros(WritableByteChannel canal, FormatoListado formato) throws IOException {
+        listadoLibros(escritorDeCanal(canal), formato);
+    }
+
+    /**
+     * Lista primero los prestamos devueltos, en el orden en que se
+     * devolvieron, y despues los activos de cada usuario.
+     */
     public String listadoPrestamos() {
-        if (totalPrestamos == 0) {
+        if (archivo.tamanio() == 0 && !hayPrestamosActivos()) {
             return "No hay prestamos registrados";
         }
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < totalPrestamos; i++) {
-            sb.append(prestamos[i].toString()).append(System.lineSeparator());
+        try {
+            listadoPrestamos(sb, FormatoListado.TEXTO);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
         return sb.toString();
     }
 
+    /**
+     * Escribe el listado de prestamos, en el mismo orden que
+     * {@link #listadoPrestamos()}, en {@code destino}. Los devueltos se leen
+     * directamente de las columnas del archivo, sin reconstruir cada
+     * prestamo. No cierra el destino.
+     */
+    public void listadoPrestamos(Appendable destino, FormatoListado formato) throws IOException {
+        EscritorListado escritor = new EscritorListado(destino, formato);
+        escritor.cabeceraPrestamos();
+        int archivados = archivo.tamanio();
+        for (int registro = 0; registro < archivados; registro++) {
+            escritor.prestamo(ejemplaresNumerados.obtener(archivo.ejemplar(registro)),
+                    usuariosNumerados.obtener(archivo.usuario(registro)),
+                    archivo.inicio(registro), archivo.limite(registro), archivo.devolucion(registro));
+        }
+        for (Usuario usuario : usuarios) {
+            for (Prestamo prestamo : usuario.getPrestamosActivos()) {
+                escritor.prestamo(prestamo.getEjemplar(), usuario, prestamo.getDiaInicio(),
+                        prestamo.getDiaLimite(), EscritorListado.SIN_FECHA);
+            }
+        }
+        escritor.terminar();
+    }
+
+    /**
+     * Igual que {@link #listadoPrestamos(Appendable, FormatoListado)} pero
+     * escribiendo en UTF-8 en un canal, que tampoco se cierra.
+     */
+    public void listadoPrestamos(WritableByteChannel canal, FormatoListado formato) throws IOException {
+        listadoPrestamos(escritorDeCanal(canal), formato);
+    }
+
     public String listadoPrestamosUsuario(String idUsuario) {
         Prestamo[] activos = prestamosActivosUsuario(idUsuario);
         if (activos.length == 0) {
@@ -233,51 +1223,611 @@ public class Biblioteca {
         return sb.toString();
     }
 
-    private int indiceLibro(String isbn) {
-        if (isbn == null) {
-            return -1;
+    /**
+     * Registra en el indice un ejemplar que se agrega a un libro ya dado de
+     * alta y, con el cerrojo aun tomado, ejecuta {@code guardar} para que el
+     * libro lo anada a sus ejemplares.
+     *
+     * @return {@code false}, sin hacer nada, si el libro ya no esta en esta
+     *         biblioteca
+     */
+    boolean registrarEjemplar(Ejemplar ejemplar, Runnable guardar) {
+        String codigo = clave(ejemplar.getCodigo());
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            if (ejemplar.getLibro().getBiblioteca() != this) {
+                return false;
+            }
+            if (ejemplaresPorCodigo.containsKey(codigo)) {
+                throw new IllegalArgumentException("Ya existe un ejemplar con ese codigo");
+            }
+            guardar.run();
+            ejemplaresPorCodigo.put(codigo, ejemplar);
+            ejemplar.setNumero(ejemplaresNumerados.asignar(ejemplar));
+            registro = anotar(d -> d.ejemplar(ejemplar));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        String buscado = isbn.trim();
-        for (int i = 0; i < totalLibros; i++) {
-            if (libros[i].getIsbn().equalsIgnoreCase(buscado)) {
-                return i;
+        confirmar(registro);
+        return true;
+    }
+
+    /**
+     * Anade un autor a un libro dado de alta: comprueba antes que no choca
+     * con el autor registrado y, con el cerrojo aun tomado, ejecuta
+     * {@code guardar}, actualiza los indices y anota los autores que quedan.
+     *
+     * @return {@code false}, sin hacer nada, si el libro ya no esta en esta
+     *         biblioteca
+     */
+    boolean agregarAutor(Libro libro, Autor autor, Runnable guardar) {
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            if (libro.getBiblioteca() != this) {
+                return false;
             }
+            autores.comprobar(autor);
+            guardar.run();
+            autores.reindexar(libro);
+            indiceTexto.reindexar(libro);
+            registro = anotar(d -> d.datosLibro(libro));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        return -1;
+        confirmar(registro);
+        return true;
     }
 
-    private int indiceUsuario(String id) {
-        if (id == null) {
-            return -1;
+    /**
+     * Quita un autor de un libro dado de alta: ejecuta {@code borrar} con el
+     * cerrojo del catalogo tomado, actualiza los indices y anota los autores
+     * que quedan.
+     *
+     * @return {@code false}, sin hacer nada, si el libro ya no esta en esta
+     *         biblioteca
+     */
+    boolean quitarAutor(Libro libro, Autor autor, Runnable borrar) {
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            if (libro.getBiblioteca() != this) {
+                return false;
+            }
+            borrar.run();
+            autores.reindexar(libro);
+            indiceTexto.reindexar(libro);
+            registro = anotar(d -> d.datosLibro(libro));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        String buscado = id.trim();
-        for (int i = 0; i < totalUsuarios; i++) {
-            if (usuarios[i].getId().equalsIgnoreCase(buscado)) {
-                return i;
+        confirmar(registro);
+        return true;
+    }
+
+    /**
+     * Cambia los datos de un libro dado de alta: ejecuta {@code cambio} con el
+     * cerrojo del catalogo y el monitor del libro tomados, actualiza los
+     * indices y anota en el diario los datos que quedan.
+     *
+     * @return {@code false}, sin hacer nada, si el libro ya no esta en esta
+     *         biblioteca
+     */
+    boolean modificarLibro(Libro libro, Runnable cambio) {
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            if (libro.getBiblioteca() != this) {
+                return false;
+            }
+            synchronized (libro) {
+                cambio.run();
             }
+            autores.reindexar(libro);
+            indiceTexto.reindexar(libro);
+            registro = anotar(d -> d.datosLibro(libro));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        return -1;
+        confirmar(registro);
+        return true;
     }
 
-    private Ejemplar buscarEjemplarPorCodigo(String codigo) {
-        if (codigo == null) {
-            return null;
+    /**
+     * Cambia los datos de un usuario dado de alta y los anota en el diario.
+     *
+     * @return {@code false}, sin hacer nada, si el usuario ya no esta en esta
+     *         biblioteca
+     */
+    boolean modificarUsuario(Usuario usuario, Runnable cambio) {
+        long registro;
+        cerrojoCatalogo.lock();
+        try {
+            if (usuario.getBiblioteca() != this) {
+                return false;
+            }
+            synchronized (usuario) {
+                cambio.run();
+            }
+            registro = anotar(d -> d.datosUsuario(usuario));
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        String buscado = codigo.trim();
-        for (int i = 0; i < totalLibros; i++) {
-            Ejemplar ejemplar = libros[i].buscarEjemplarPorCodigo(buscado);
-            if (ejemplar != null) {
-                return ejemplar;
+        confirmar(registro);
+        return true;
+    }
+
+    /**
+     * Conecta el diario en el que se anotan los cambios. Lo usa
+     * {@link Diario#abrir} despues de reproducir los registros existentes.
+     */
+    void setDiario(Diario diario) {
+        if (this.diario != null) {
+            throw new IllegalArgumentException("La biblioteca ya tiene un diario");
+        }
+        this.diario = diario;
+    }
+
+    /**
+     * Cierra el diario, si lo hay, y borra el archivo de prestamos devueltos.
+     * Despues la biblioteca no debe usarse.
+     */
+    @Override
+    public void close() throws IOException {
+        Diario actual = diario;
+        try {
+            if (actual != null) {
+                actual.close();
             }
+        } finally {
+            archivo.close();
+        }
+    }
+
+    /**
+     * Empieza a vigilar la fecha limite de un prestamo nuevo. Lo llama el
+     * usuario al anadir su prestamo activo.
+     */
+    void vigilarVencimiento(Prestamo prestamo) {
+        vencimientos.agregar(prestamo);
+    }
+
+    /**
+     * Anade al archivo un prestamo que se acaba de devolver y deja de vigilar
+     * su vencimiento. Lo llama el usuario al cerrar su prestamo activo, antes
+     * de cambiar nada: si el archivo falla, no se ha tocado ningun estado.
+     */
+    void archivarPrestamo(Prestamo prestamo) {
+        Ejemplar ejemplar = prestamo.getEjemplar();
+        Usuario usuario = prestamo.getUsuario();
+        if (ejemplaresNumerados.contiene(ejemplar.getNumero(), ejemplar)
+                && usuariosNumerados.contiene(usuario.getNumero(), usuario)) {
+            archivo.agregar(ejemplar.getNumero(), usuario.getNumero(),
+                    prestamo.getDiaInicio(), prestamo.getDiaLimite(), prestamo.getDiaDevolucion());
+            cargarMulta(prestamo, prestamo.getDiaDevolucion());
+        }
+        vencimientos.quitar(prestamo);
+    }
+
+    Prestamo[] historialDe(Usuario usuario) {
+        if (!usuariosNumerados.contiene(usuario.getNumero(), usuario)) {
+            return new Prestamo[0];
+        }
+        return archivados(archivo.registrosDeUsuario(usuario.getNumero()));
+    }
+
+    /**
+     * Copia lo necesario para escribir una {@link Instantanea}. La circulacion
+     * solo se detiene mientras se marca el diario y se leen el tamanio del
+     * archivo y los prestamos activos; el catalogo, durante toda la copia.
+     *
+     * <p>Las colas de reservas y los pagos se leen despues, sin detener la
+     * circulacion: al marcar se abre una epoca nueva y el primer cambio de
+     * cada cola o usuario en ella guarda antes su valor, que es el que se lee.
+     */
+    Instantanea capturar() {
+        cerrojoCatalogo.lock();
+        try {
+            Usuario[] numerados = new Usuario[usuariosNumerados.tamanio()];
+            boolean[] registrados = new boolean[numerados.length];
+            for (int i = 0; i < numerados.length; i++) {
+                numerados[i] = usuariosNumerados.obtener(i);
+                registrados[i] = numerados[i].getBiblioteca() == this;
+            }
+            long registro;
+            int archivados;
+            List<Prestamo> activos;
+            TarifaMultas tarifa;
+            int epoca;
+            bloquearTodos();
+            try {
+                Diario actual = diario;
+                registro = actual == null ? 0 : actual.marcarInstantanea();
+                archivados = archivo.tamanio();
+                activos = prestamosActivos();
+                tarifa = tarifaMultas;
+                epoca = ++epocaInstantanea;
+            } finally {
+                desbloquearTodos();
+            }
+            Map<Libro, Usuario[]> reservas = new IdentityHashMap<>();
+            for (Libro libro : libros) {
+                Usuario[] cola = libro.getReservas().usuariosAlMarcar(epoca);
+                if (cola.length > 0) {
+                    reservas.put(libro, cola);
+                }
+            }
+            long[] multasPagadas = new long[numerados.length];
+            for (int i = 0; i < numerados.length; i++) {
+                multasPagadas[i] = numerados[i].multasPagadasAlMarcar(epoca);
+            }
+            List<Libro> copiaLibros = new ArrayList<>(libros.tamanio());
+            for (Libro libro : libros) {
+                copiaLibros.add(libro);
+            }
+            Ejemplar[][] ejemplares = new Ejemplar[copiaLibros.size()][];
+            for (int i = 0; i < ejemplares.length; i++) {
+                ejemplares[i] = copiaLibros.get(i).getEjemplares();
+            }
+            return new Instantanea(registro, copiaLibros.toArray(new Libro[0]), ejemplares,
+                    numerados, registrados, archivo, archivados, activos.toArray(new Prestamo[0]), reservas,
+                    tarifa, multasPagadas);
+        } finally {
+            cerrojoCatalogo.unlock();
+        }
+    }
+
+    /**
+     * Repite la asignacion de un ejemplar devuelto a quien lo tenia reservado.
+     * La usa el diario al reproducir sus registros.
+     */
+    void reproducirAsignacion(String codigoEjemplar, String idUsuario, LocalDate fecha) {
+        Ejemplar ejemplar = buscarEjemplarPorCodigo(codigoEjemplar);
+        Usuario usuario = buscarUsuarioPorId(idUsuario);
+        if (ejemplar == null || usuario == null) {
+            throw new IllegalArgumentException("No existe el ejemplar o el usuario de la reserva");
+        }
+        long cerrojos = mascaraCerrojo(ejemplar.getCodigo()) | mascaraCerrojo(usuario.getId());
+        bloquear(cerrojos);
+        try {
+            if (!ejemplar.getLibro().getReservas().quitar(usuario, epocaInstantanea)) {
+                throw new IllegalArgumentException("El usuario no tenia reservado el libro");
+            }
+            usuario.quitarReserva();
+            new Prestamo(ejemplar, usuario, fecha);
+        } finally {
+            desbloquear(cerrojos);
+        }
+    }
+
+    /**
+     * Pone al usuario al final de la cola del libro sin comprobar nada. Lo
+     * usa la carga de instantaneas.
+     */
+    void restaurarReserva(Libro libro, Usuario usuario) {
+        if (libro.getReservas().agregar(usuario, epocaInstantanea)) {
+            usuario.agregarReserva();
+        }
+    }
+
+    /**
+     * Numera un usuario dado de baja que aparece en el archivo de una
+     * instantanea, sin volver a darlo de alta.
+     */
+    void restaurarUsuarioDeBaja(Usuario usuario) {
+        cerrojoCatalogo.lock();
+        try {
+            numerar(usuario);
+        } finally {
+            cerrojoCatalogo.unlock();
         }
-        return null;
     }
 
-    private <T> void eliminarElemento(T[] array, int indice, int total) {
-        int elementosAMover = total - indice - 1;
-        if (elementosAMover > 0) {
-            System.arraycopy(array, indice + 1, array, indice, elementosAMover);
+    /**
+     * Anade al archivo un prestamo devuelto leido de una instantanea.
+     */
+    void restaurarArchivado(Ejemplar ejemplar, Usuario usuario, int inicio, int limite, int devolucion) {
+        archivo.agregar(ejemplar.getNumero(), usuario.getNumero(), inicio, limite, devolucion);
+        long multa = tarifaMultas.multa(ejemplar.getLibro().getCategoria(), devolucion - limite);
+        if (multa > 0) {
+            usuario.cargarMulta(multa);
         }
-        array[total - 1] = null;
+    }
+
+    /**
+     * Anota un cambio en el diario, si hay uno, y devuelve el numero de
+     * registro que hay que confirmar. Se llama con el cerrojo de la operacion
+     * tomado para que el orden del diario sea el de los cambios.
+     */
+    private long anotar(ToLongFunction<Diario> anotacion) {
+        Diario actual = diario;
+        return actual == null ? 0 : anotacion.applyAsLong(actual);
+    }
+
+    /**
+     * Espera, ya sin cerrojos, a que el registro este en disco.
+     */
+    private void confirmar(long registro) {
+        Diario actual = diario;
+        if (actual != null && registro > 0) {
+            actual.esperar(registro);
+        }
+    }
+
+    /**
+     * Deja cargada al usuario la multa que tiene el prestamo en ese dia. Se
+     * llama con los cerrojos del prestamo tomados.
+     */
+    private void cargarMulta(Prestamo prestamo, int dia) {
+        long multa = tarifaMultas.multa(prestamo.getEjemplar().getLibro().getCategoria(), prestamo.diasRetraso(dia));
+        long diferencia = multa - prestamo.getMultaCargada();
+        if (diferencia != 0) {
+            prestamo.setMultaCargada(multa);
+            prestamo.getUsuario().cargarMulta(diferencia);
+        }
+    }
+
+    /**
+     * Se llama con el cerrojo del catalogo y todos los de circulacion.
+     */
+    private int recalcularMultas() {
+        TarifaMultas tarifa = tarifaMultas;
+        long[] generadas = new long[usuariosNumerados.tamanio()];
+        int filas = archivo.tamanio();
+        for (int fila = 0; fila < filas; fila++) {
+            int retraso = archivo.devolucion(fila) - archivo.limite(fila);
+            if (retraso > 0) {
+                Categoria categoria = ejemplaresNumerados.obtener(archivo.ejemplar(fila)).getLibro().getCategoria();
+                generadas[archivo.usuario(fila)] += tarifa.multa(categoria, retraso);
+            }
+        }
+        int dia = diaMultas;
+        for (Usuario usuario : usuarios) {
+            for (Prestamo prestamo : usuario.getPrestamosActivos()) {
+                long multa = dia == SIN_CIERRE_MULTAS ? 0
+                        : tarifa.multa(prestamo.getEjemplar().getLibro().getCategoria(), prestamo.diasRetraso(dia));
+                prestamo.setMultaCargada(multa);
+                generadas[usuario.getNumero()] += multa;
+            }
+        }
+        int corregidos = 0;
+        for (int numero = 0; numero < generadas.length; numero++) {
+            Usuario usuario = usuariosNumerados.obtener(numero);
+            if (usuario != null && usuario.getMultasGeneradas() != generadas[numero]) {
+                usuario.setMultasGeneradas(generadas[numero]);
+                corregidos++;
+            }
+        }
+        return corregidos;
+    }
+
+    private long empezarMedida() {
+        return metricas == null ? SIN_MEDIDA : System.nanoTime();
+    }
+
+    private void terminarMedida(Metricas.Operacion operacion, long inicio, boolean correcta) {
+        Metricas actuales = metricas;
+        // Si se activaron a mitad de la operacion no hay inicio que medir.
+        if (actuales != null && inicio != SIN_MEDIDA) {
+            actuales.registrar(operacion, inicio, correcta);
+        }
+    }
+
+    private void numerar(Usuario usuario) {
+        // Un usuario que vuelve a darse de alta conserva su numero y su historial.
+        if (!usuariosNumerados.contiene(usuario.getNumero(), usuario)) {
+            usuario.setNumero(usuariosNumerados.asignar(usuario));
+        }
+    }
+
+    private static Writer escritorDeCanal(WritableByteChannel canal) {
+        if (canal == null) {
+            throw new IllegalArgumentException("El canal es obligatorio");
+        }
+        // El escritor codifica por bloques en su propio buffer; el listado lo
+        // vacia al terminar y no se cierra para no cerrar el canal.
+        return Channels.newWriter(canal, StandardCharsets.UTF_8);
+    }
+
+    private boolean hayPrestamosActivos() {
+        for (Usuario usuario : usuarios) {
+            if (usuario.getPrestamosActivos().length > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<Prestamo> prestamosActivos() {
+        List<Prestamo> activos = new ArrayList<>();
+        for (Usuario usuario : usuarios) {
+            activos.addAll(Arrays.asList(usuario.getPrestamosActivos()));
+        }
+        return activos;
+    }
+
+    private Prestamo[] archivados(int[] registros) {
+        Prestamo[] resultado = new Prestamo[registros.length];
+        for (int i = 0; i < registros.length; i++) {
+            resultado[i] = archivado(registros[i]);
+        }
+        return resultado;
+    }
+
+    /**
+     * Reconstruye un prestamo devuelto a partir de su fila del archivo.
+     */
+    private Prestamo archivado(int registro) {
+        return new Prestamo(ejemplaresNumerados.obtener(archivo.ejemplar(registro)),
+                usuariosNumerados.obtener(archivo.usuario(registro)),
+                archivo.inicio(registro), archivo.devolucion(registro));
+    }
+
+    private static int indiceCerrojo(String clave) {
+        int hash = clave.hashCode();
+        return (hash ^ (hash >>> 16)) & (TOTAL_CERROJOS - 1);
+    }
+
+    /**
+     * Bloquea el ejemplar y el usuario tomando siempre antes el cerrojo de
+     * menor indice, para que dos mostradores no puedan esperarse mutuamente.
+     */
+    private void bloquear(Ejemplar ejemplar, Usuario usuario) {
+        int a = indiceCerrojo(clave(ejemplar.getCodigo()));
+        int b = indiceCerrojo(clave(usuario.getId()));
+        cerrojosCirculacion[Math.min(a, b)].lock();
+        if (a != b) {
+            cerrojosCirculacion[Math.max(a, b)].lock();
+        }
+    }
+
+    private void desbloquear(Ejemplar ejemplar, Usuario usuario) {
+        int a = indiceCerrojo(clave(ejemplar.getCodigo()));
+        int b = indiceCerrojo(clave(usuario.getId()));
+        if (a != b) {
+            cerrojosCirculacion[Math.max(a, b)].unlock();
+        }
+        cerrojosCirculacion[Math.min(a, b)].unlock();
+    }
+
+    /**
+     * Indica si el prestamo del ejemplar al usuario atiende su reserva, por
+     * ser el primero que espera el libro. Si el libro tiene reservas y el
+     * usuario no es el primero, el ejemplar no se le puede prestar.
+     */
+    private static boolean atiendeReserva(Ejemplar ejemplar, Usuario usuario) {
+        ColaReservas cola = ejemplar.getLibro().getReservas();
+        if (cola.estaVacia()) {
+            return false;
+        }
+        if (cola.siguiente() != usuario) {
+            throw new IllegalArgumentException("El libro tiene reservas pendientes");
+        }
+        return true;
+    }
+
+    private void consumirReserva(Ejemplar ejemplar, Usuario usuario) {
+        ejemplar.getLibro().getReservas().quitar(usuario, epocaInstantanea);
+        usuario.quitarReserva();
+    }
+
+    /**
+     * Presta el ejemplar recien devuelto al primer usuario que espera su
+     * libro. Si entre tanto cambia el primero de la cola se vuelve a
+     * intentar con el nuevo, y si el ejemplar ya no esta libre no se hace nada.
+     */
+    private void asignarReserva(Ejemplar ejemplar, LocalDate fecha) {
+        ColaReservas cola = ejemplar.getLibro().getReservas();
+        while (true) {
+            Usuario candidato = cola.siguiente();
+            if (candidato == null) {
+                return;
+            }
+            long cerrojos = mascaraCerrojo(ejemplar.getCodigo()) | mascaraCerrojo(candidato.getId());
+            long registro = 0;
+            boolean asignado = false;
+            bloquear(cerrojos);
+            try {
+                if (ejemplar.getEstado() != EstadoLibro.DISPONIBLE) {
+                    return;
+                }
+                if (cola.siguiente() == candidato) {
+                    Prestamo prestamo = new Prestamo(ejemplar, candidato, fecha);
+                    consumirReserva(ejemplar, candidato);
+                    registro = anotar(d -> d.asignacionReserva(prestamo));
+                    asignado = true;
+                }
+            } finally {
+                desbloquear(cerrojos);
+            }
+            if (asignado) {
+                confirmar(registro);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Bit del cerrojo de circulacion de una clave; hay tantos cerrojos como
+     * bits en un {@code long}, asi que cualquier conjunto cabe en uno.
+     */
+    private static long mascaraCerrojo(String clave) {
+        return 1L << indiceCerrojo(clave(clave));
+    }
+
+    /**
+     * Bloquea los cerrojos de la mascara en orden de indice, igual que
+     * {@link #bloquear(Ejemplar, Usuario)}.
+     */
+    private void bloquear(long cerrojos) {
+        for (long resto = cerrojos; resto != 0; resto &= resto - 1) {
+            cerrojosCirculacion[Long.numberOfTrailingZeros(resto)].lock();
+        }
+    }
+
+    private void desbloquear(long cerrojos) {
+        for (long resto = cerrojos; resto != 0; resto &= resto - 1) {
+            cerrojosCirculacion[Long.numberOfTrailingZeros(resto)].unlock();
+        }
+    }
+
+    private void bloquearTodos() {
+        for (ReentrantLock cerrojo : cerrojosCirculacion) {
+            cerrojo.lock();
+        }
+    }
+
+    private void desbloquearTodos() {
+        for (int i = cerrojosCirculacion.length - 1; i >= 0; i--) {
+            cerrojosCirculacion[i].unlock();
+        }
+    }
+
+    private static int relevancia(Libro libro, String patron) {
+        if (libro.tituloTienePalabra(patron)) {
+            return 3;
+        }
+        return libro.getTituloNormalizado().contains(patron) ? 2 : 1;
+    }
+
+    private static int relevancia(Usuario usuario, String patron) {
+        if (usuario.getId().equalsIgnoreCase(patron)) {
+            return 3;
+        }
+        return usuario.getNombreNormalizado().contains(patron) ? 2 : 1;
+    }
+
+    private static void validarPagina(int desde, int limite) {
+        if (desde < 0) {
+            throw new IllegalArgumentException("La posicion inicial no puede ser negativa");
+        }
+        if (limite <= 0 || limite > MAX_RESULTADOS_PAGINA) {
+            throw new IllegalArgumentException("El limite debe estar entre 1 y " + MAX_RESULTADOS_PAGINA);
+        }
+        if (desde > Integer.MAX_VALUE - limite) {
+            throw new IllegalArgumentException("La posicion inicial es demasiado grande");
+        }
+    }
+
+    private static <T> PaginaResultados<T> pagina(SeleccionTopK<T> seleccion, int desde) {
+        List<T> mejores = seleccion.mejores();
+        List<T> elementos = desde >= mejores.size() ? List.of() : mejores.subList(desde, mejores.size());
+        return new PaginaResultados<>(elementos, desde, seleccion.getTotalOfrecidos());
+    }
+
+    private Ejemplar buscarEjemplarPorCodigo(String codigo) {
+        if (codigo == null) {
+            return null;
+        }
+        return ejemplaresPorCodigo.get(clave(codigo));
+    }
+
+    /**
+     * Clave de los indices: sin espacios laterales y en minusculas para que las
+     * busquedas sigan sin distinguir mayusculas.
+     */
+    private static String clave(String valor) {
+        return valor.trim().toLowerCase(Locale.ROOT);
     }
 }
@@ -0,0 +1,67 @@
+package biblioteca;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Usuarios que esperan un ejemplar de un libro, en orden de llegada.
+ *
+ * <p>Anadir, quitar y consultar el primero cuestan lo mismo tenga la cola
+ * los usuarios que tenga, y un usuario no puede estar dos veces. La
+ * biblioteca la modifica con los cerrojos de circulacion del usuario
+ * afectado tomados; la cola solo se sincroniza consigo misma.
+ *
+ * <p>Cada cambio recibe la epoca de la ultima instantanea marcada (ver
+ * {@link Biblioteca#capturar()}); el primero de cada epoca guarda antes la
+ * cola, para que la instantanea la lea tal como estaba al marcarse.
+ */
+final class ColaReservas {
+    private final LinkedHashSet<Usuario> usuarios = new LinkedHashSet<>();
+    private int epoca;
+    private Usuario[] alMarcar;
+
+    synchronized boolean agregar(Usuario usuario, int epocaActual) {
+        conservar(epocaActual);
+        return usuarios.add(usuario);
+    }
+
+    synchronized boolean quitar(Usuario usuario, int epocaActual) {
+        conservar(epocaActual);
+        return usuarios.remove(usuario);
+    }
+
+    private void conservar(int epocaActual) {
+        if (epoca != epocaActual) {
+            alMarcar = usuarios.toArray(new Usuario[0]);
+            epoca = epocaActual;
+        }
+    }
+
+    /**
+     * La cola tal como estaba al marcar la instantanea de la epoca indicada,
+     * que debe ser la ultima.
+     */
+    synchronized Usuario[] usuariosAlMarcar(int epocaMarcada) {
+        return epoca == epocaMarcada ? alMarcar : usuarios();
+    }
+
+    /**
+     * Primer usuario de la cola, o {@code null} si esta vacia.
+     */
+    synchronized Usuario siguiente() {
+        Iterator<Usuario> iterador = usuarios.iterator();
+        return iterador.hasNext() ? iterador.next() : null;
+    }
+
+    synchronized int tamanio() {
+        return usuarios.size();
+    }
+
+    synchronized boolean estaVacia() {
+        return usuarios.isEmpty();
+    }
+
+    synchronized Usuario[] usuarios() {
+        return usuarios.toArray(new Usuario[0]);
+    }
+}
@@ -0,0 +1,665 @@
+package biblioteca;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.zip.CRC32;
+
+/**
+ * Diario de operaciones de una biblioteca: fichero binario en el que solo se
+ * anaden registros, uno por cada cambio (altas, bajas y cambios de datos de
+ * libros y usuarios, ejemplares nuevos, prestamos y devoluciones).
+ *
+ * <p>Los cambios de datos guardan el estado completo del libro o del usuario y
+ * no la diferencia: la instantanea lee los datos despues de marcarse, asi que
+ * puede incluir ya un cambio que se reproduce despues sobre ella.
+ *
+ * <p>Las operaciones dejan su registro en memoria y esperan a que un hilo de
+ * escritura lo vuelque a disco. Ese hilo escribe de una vez todo lo acumulado
+ * y hace un unico {@code force} para el lote, de modo que varios mostradores
+ * comparten el coste de cada sincronizacion con el disco.
+ *
+ * <p>Al abrirlo se carga la ultima {@link Instantanea}, si la hay, y se
+ * reproducen sobre la biblioteca los registros completos posteriores a ella;
+ * un registro a medio escribir por una caida se descarta. Cada
+ * {@value #REGISTROS_POR_INSTANTANEA} registros se escribe en segundo plano
+ * una instantanea nueva y se recorta el diario para que el arranque no crezca
+ * con el historial.
+ */
+public final class Diario implements Closeable {
+    private static final int MAGICO = 0x42494244;
+    private static final byte VERSION = 2;
+    private static final int TAMANIO_CABECERA = 13;
+    static final int REGISTROS_POR_INSTANTANEA = 100_000;
+
+    static final byte ALTA_LIBRO = 1;
+    static final byte BAJA_LIBRO = 2;
+    static final byte ALTA_USUARIO = 3;
+    static final byte BAJA_USUARIO = 4;
+    static final byte PRESTAMO = 5;
+    static final byte DEVOLUCION = 6;
+    static final byte EJEMPLAR = 7;
+    static final byte RESERVA = 8;
+    static final byte CANCELACION_RESERVA = 9;
+    static final byte ASIGNACION_RESERVA = 10;
+    static final byte PAGO_MULTA = 11;
+    static final byte TARIFA_MULTAS = 12;
+    static final byte DATOS_LIBRO = 13;
+    static final byte DATOS_USUARIO = 14;
+
+    private final Path fichero;
+    private final Path ficheroInstantanea;
+    private final Biblioteca biblioteca;
+    private final Thread escritor;
+    private final Object cerrojo = new Object();
+    private final Object cerrojoInstantanea = new Object();
+    // Solo lo usa el hilo de escritura una vez arrancado.
+    private FileChannel canal;
+    private ByteArrayOutputStream pendiente = new ByteArrayOutputStream();
+    private ByteArrayOutputStream enEscritura = new ByteArrayOutputStream();
+    private long primerRegistro;
+    private long ultimoAnotado;
+    private long ultimoEnDisco;
+    private long tamanioAnotado;
+    private long registroMarcado;
+    private long posicionMarcada;
+    private long recortarHasta;
+    private long recortadoHasta;
+    private volatile long registroInstantanea;
+    private volatile Thread hiloInstantanea;
+    private IOException error;
+    private boolean cerrado;
+
+    private Diario(Path fichero, FileChannel canal, Biblioteca biblioteca) {
+        this.fichero = fichero;
+        this.ficheroInstantanea = fichero.resolveSibling(fichero.getFileName() + ".instantanea");
+        this.canal = canal;
+        this.biblioteca = biblioteca;
+        this.escritor = new Thread(this::escribirLotes, "diario-" + fichero.getFileName());
+        this.escritor.setDaemon(true);
+    }
+
+    /**
+     * Abre (o crea) el diario, reproduce sus registros sobre la biblioteca y lo
+     * deja conectado a ella para anotar los cambios siguientes. La biblioteca
+     * debe estar recien creada y sin diario.
+     */
+    public static Diario abrir(Path fichero, Biblioteca biblioteca) throws IOException {
+        if (fichero == null || biblioteca == null) {
+            throw new IllegalArgumentException("El fichero y la biblioteca son obligatorios");
+        }
+        FileChannel canal = FileChannel.open(fichero, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Diario diario = new Diario(fichero, canal, biblioteca);
+        try {
+            long base = 0;
+            if (Files.exists(diario.ficheroInstantanea)) {
+                base = Instantanea.cargar(diario.ficheroInstantanea, biblioteca);
+            }
+            long valido = diario.reproducir(base);
+            canal.truncate(valido);
+            canal.position(valido);
+            if (valido == 0) {
+                diario.primerRegistro = diario.ultimoAnotado + 1;
+                escribirCabecera(canal, diario.primerRegistro);
+                canal.force(true);
+                valido = TAMANIO_CABECERA;
+            }
+            diario.tamanioAnotado = valido;
+            diario.ultimoEnDisco = diario.ultimoAnotado;
+            diario.registroInstantanea = base;
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+        diario.escritor.start();
+        biblioteca.setDiario(diario);
+        return diario;
+    }
+
+    public Path getFichero() {
+        return fichero;
+    }
+
+    public Path getFicheroInstantanea() {
+        return ficheroInstantanea;
+    }
+
+    /**
+     * Escribe una instantanea de la biblioteca y recorta del diario los
+     * registros que ya incluye. La biblioteca solo se detiene mientras se
+     * captura; la escritura se hace en el hilo que llama.
+     */
+    public void escribirInstantanea() throws IOException {
+        synchronized (cerrojoInstantanea) {
+            Instantanea instantanea = biblioteca.capturar();
+            Path temporal = ficheroInstantanea.resolveSibling(ficheroInstantanea.getFileName() + ".tmp");
+            instantanea.escribir(temporal);
+            Files.move(temporal, ficheroInstantanea, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            registroInstantanea = instantanea.getRegistro();
+            recortar(instantanea.getRegistro());
+        }
+    }
+
+    /**
+     * Recuerda el ultimo registro anotado y donde acaba en el fichero. Lo llama
+     * {@link Biblioteca#capturar()} con todos sus cerrojos tomados, de modo que
+     * ningun cambio queda a medias entre la instantanea y el diario.
+     */
+    long marcarInstantanea() {
+        synchronized (cerrojo) {
+            registroMarcado = ultimoAnotado;
+            posicionMarcada = tamanioAnotado;
+            return ultimoAnotado;
+        }
+    }
+
+    long altaLibro(Libro libro) {
+        return anotar(ALTA_LIBRO, salida -> {
+            salida.writeUTF(libro.getIsbn());
+            salida.writeUTF(libro.getTitulo());
+            salida.writeInt(libro.getAnio());
+            salida.writeByte(libro.getCategoria().ordinal());
+            escribirAutores(salida, libro.getAutores());
+            Ejemplar[] ejemplares = libro.getEjemplares();
+            salida.writeShort(ejemplares.length);
+            for (Ejemplar ejemplar : ejemplares) {
+                salida.writeUTF(ejemplar.getCodigo());
+            }
+        });
+    }
+
+    long datosLibro(Libro libro) {
+        return anotar(DATOS_LIBRO, salida -> {
+            salida.writeUTF(libro.getIsbn());
+            salida.writeUTF(libro.getTitulo());
+            salida.writeInt(libro.getAnio());
+            salida.writeByte(libro.getCategoria().ordinal());
+            escribirAutores(salida, libro.getAutores());
+        });
+    }
+
+    long bajaLibro(String isbn) {
+        return anotar(BAJA_LIBRO, salida -> salida.writeUTF(isbn));
+    }
+
+    long ejemplar(Ejemplar ejemplar) {
+        return anotar(EJEMPLAR, salida -> {
+            salida.writeUTF(ejemplar.getLibro().getIsbn());
+            salida.writeUTF(ejemplar.getCodigo());
+        });
+    }
+
+    long altaUsuario(Usuario usuario) {
+        return anotar(ALTA_USUARIO, salida -> escribirUsuario(salida, usuario));
+    }
+
+    long datosUsuario(Usuario usuario) {
+        return anotar(DATOS_USUARIO, salida -> escribirUsuario(salida, usuario));
+    }
+
+    long bajaUsuario(String id) {
+        return anotar(BAJA_USUARIO, salida -> salida.writeUTF(id));
+    }
+
+    long prestamo(Prestamo prestamo) {
+        return anotar(PRESTAMO, salida -> {
+            salida.writeUTF(prestamo.getEjemplar().getCodigo());
+            salida.writeUTF(prestamo.getUsuario().getId());
+            salida.writeInt(prestamo.getDiaInicio());
+        });
+    }
+
+    long devolucion(String codigoEjemplar, LocalDate fecha) {
+        return anotar(DEVOLUCION, salida -> {
+            salida.writeUTF(codigoEjemplar);
+            salida.writeInt((int) fecha.toEpochDay());
+        });
+    }
+
+    long reserva(String isbn, String idUsuario) {
+        return anotar(RESERVA, salida -> {
+            salida.writeUTF(isbn);
+            salida.writeUTF(idUsuario);
+        });
+    }
+
+    long cancelacionReserva(String isbn, String idUsuario) {
+        return anotar(CANCELACION_RESERVA, salida -> {
+            salida.writeUTF(isbn);
+            salida.writeUTF(idUsuario);
+        });
+    }
+
+    /**
+     * Anota que un ejemplar devuelto se presto a quien lo tenia reservado.
+     * Las devoluciones se reproducen sin asignar reservas, asi que cada
+     * asignacion necesita su registro.
+     */
+    long asignacionReserva(Prestamo prestamo) {
+        return anotar(ASIGNACION_RESERVA, salida -> {
+            salida.writeUTF(prestamo.getEjemplar().getCodigo());
+            salida.writeUTF(prestamo.getUsuario().getId());
+            salida.writeInt(prestamo.getDiaInicio());
+        });
+    }
+
+    long pagoMulta(String idUsuario, long centimos) {
+        return anotar(PAGO_MULTA, salida -> {
+            salida.writeUTF(idUsuario);
+            salida.writeLong(centimos);
+        });
+    }
+
+    long tarifaMultas(TarifaMultas tarifa) {
+        return anotar(TARIFA_MULTAS, salida -> {
+            Categoria[] categorias = Categoria.values();
+            salida.writeByte(categorias.length);
+            for (Categoria categoria : categorias) {
+                salida.writeLong(tarifa.getCentimosPorDia(categoria));
+            }
+            salida.writeLong(tarifa.getTopePorPrestamo());
+        });
+    }
+
+    /**
+     * Espera a que el registro indicado, y todos los anteriores, esten en disco.
+     */
+    void esperar(long registro) {
+        synchronized (cerrojo) {
+            while (ultimoEnDisco < registro && error == null) {
+                try {
+                    cerrojo.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrumpido mientras se escribia el diario", e);
+                }
+            }
+            if (ultimoEnDisco < registro) {
+                throw new UncheckedIOException("No se pudo escribir el diario", error);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Thread instantanea = hiloInstantanea;
+        if (instantanea != null) {
+            try {
+                instantanea.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (cerrojo) {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            cerrojo.notifyAll();
+        }
+        try {
+            escritor.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        canal.close();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private long anotar(byte tipo, Escritura escritura) {
+        ByteArrayOutputStream cuerpo = new ByteArrayOutputStream(64);
+        try (DataOutputStream salida = new DataOutputStream(cuerpo)) {
+            salida.writeByte(tipo);
+            escritura.escribir(salida);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] datos = cuerpo.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(datos);
+        synchronized (cerrojo) {
+            if (cerrado) {
+                throw new IllegalStateException("El diario esta cerrado");
+            }
+            escribirEntero(pendiente, datos.length);
+            escribirEntero(pendiente, (int) crc.getValue());
+            pendiente.write(datos, 0, datos.length);
+            tamanioAnotado += 8 + datos.length;
+            ultimoAnotado++;
+            cerrojo.notifyAll();
+            return ultimoAnotado;
+        }
+    }
+
+    /**
+     * Pide al hilo de escritura que quite del fichero los registros hasta el
+     * indicado, ya guardados en una instantanea, y espera a que lo haga.
+     */
+    private void recortar(long registro) throws IOException {
+        synchronized (cerrojo) {
+            recortarHasta = Math.max(recortarHasta, registro);
+            cerrojo.notifyAll();
+            while (recortadoHasta < registro && error == null && !cerrado) {
+                try {
+                    cerrojo.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrumpido mientras se recortaba el diario", e);
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            if (recortadoHasta < registro) {
+                throw new IOException("El diario esta cerrado");
+            }
+        }
+    }
+
+    private void escribirLotes() {
+        while (true) {
+            long hasta;
+            long recorte = 0;
+            long posicionRecorte = 0;
+            boolean hayLote;
+            synchronized (cerrojo) {
+                while (pendiente.size() == 0 && !cerrado && recortarHasta <= recortadoHasta) {
+                    try {
+                        cerrojo.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                hayLote = pendiente.size() > 0;
+                if (!hayLote && cerrado) {
+                    return;
+                }
+                // Se intercambian los buffers para que las operaciones sigan
+                // anotando mientras este lote se escribe y sincroniza.
+                ByteArrayOutputStream lote = pendiente;
+                pendiente = enEscritura;
+                enEscritura = lote;
+                hasta = ultimoAnotado;
+                if (recortarHasta > recortadoHasta) {
+                    recorte = recortarHasta;
+                    posicionRecorte = posicionMarcada;
+                }
+            }
+            try {
+                if (hayLote) {
+                    ByteBuffer datos = ByteBuffer.wrap(enEscritura.toByteArray());
+                    while (datos.hasRemaining()) {
+                        canal.write(datos);
+                    }
+                    canal.force(false);
+                    enEscritura.reset();
+                }
+                // Tras escribir el lote el fichero contiene todos los registros
+                // marcados, asi que ya se puede recortar hasta la marca.
+                if (recorte > 0) {
+                    recortarFichero(recorte, posicionRecorte);
+                }
+            } catch (IOException e) {
+                synchronized (cerrojo) {
+                    error = e;
+                    cerrojo.notifyAll();
+                }
+                return;
+            }
+            synchronized (cerrojo) {
+                ultimoEnDisco = hasta;
+                if (recorte > 0) {
+                    tamanioAnotado -= posicionRecorte - TAMANIO_CABECERA;
+                    primerRegistro = recorte + 1;
+                    recortadoHasta = recorte;
+                }
+                cerrojo.notifyAll();
+            }
+            if (hasta - registroInstantanea >= REGISTROS_POR_INSTANTANEA) {
+                lanzarInstantanea();
+            }
+        }
+    }
+
+    /**
+     * Copia a un fichero nuevo los registros posteriores a {@code registro},
+     * que empiezan en {@code posicion}, y lo pone en lugar del diario.
+     */
+    private void recortarFichero(long registro, long posicion) throws IOException {
+        Path temporal = fichero.resolveSibling(fichero.getFileName() + ".tmp");
+        try (FileChannel nuevo = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            escribirCabecera(nuevo, registro + 1);
+            long fin = canal.size();
+            for (long copiado = posicion; copiado < fin; ) {
+                copiado += canal.transferTo(copiado, fin - copiado, nuevo);
+            }
+            nuevo.force(true);
+        }
+        Files.move(temporal, fichero, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        canal.close();
+        canal = FileChannel.open(fichero, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        canal.position(canal.size());
+    }
+
+    private void lanzarInstantanea() {
+        Thread anterior = hiloInstantanea;
+        if (anterior != null && anterior.isAlive()) {
+            return;
+        }
+        Thread hilo = new Thread(() -> {
+            try {
+                escribirInstantanea();
+            } catch (IOException | RuntimeException e) {
+                // El diario sigue completo; se reintenta con el siguiente lote.
+            }
+        }, "instantanea-" + fichero.getFileName());
+        hilo.setDaemon(true);
+        hiloInstantanea = hilo;
+        hilo.start();
+    }
+
+    /**
+     * Aplica sobre la biblioteca los registros del canal posteriores a
+     * {@code base}, el ultimo incluido en la instantanea cargada, y devuelve la
+     * posicion del final del ultimo registro completo (0 si hay que empezar
+     * el fichero de nuevo).
+     */
+    private long reproducir(long base) throws IOException {
+        ultimoAnotado = base;
+        if (canal.size() < TAMANIO_CABECERA) {
+            return 0;
+        }
+        canal.position(0);
+        InputStream flujo = new BufferedInputStream(Channels.newInputStream(canal), 1 << 16);
+        DataInputStream entrada = new DataInputStream(flujo);
+        if (entrada.readInt() != MAGICO || entrada.readByte() != VERSION) {
+            throw new IOException("El fichero no es un diario de biblioteca: " + fichero);
+        }
+        primerRegistro = entrada.readLong();
+        if (primerRegistro > base + 1) {
+            throw new IOException("Falta la instantanea con los registros anteriores al " + primerRegistro);
+        }
+        long valido = TAMANIO_CABECERA;
+        long numero = primerRegistro - 1;
+        while (true) {
+            byte[] datos;
+            try {
+                int longitud = entrada.readInt();
+                int crcEsperado = entrada.readInt();
+                if (longitud <= 0 || longitud > canal.size()) {
+                    break;
+                }
+                datos = new byte[longitud];
+                entrada.readFully(datos);
+                CRC32 crc = new CRC32();
+                crc.update(datos);
+                if ((int) crc.getValue() != crcEsperado) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            numero++;
+            if (numero > base) {
+                try {
+                    aplicar(new DataInputStream(new ByteArrayInputStream(datos)), biblioteca);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("El registro " + numero + " del diario no se puede aplicar: "
+                            + e.getMessage(), e);
+                }
+            }
+            valido += 8 + datos.length;
+        }
+        if (numero < base) {
+            // La instantanea llego a disco antes que el final del diario: todo
+            // lo que hay en el fichero ya esta en ella.
+            return 0;
+        }
+        ultimoAnotado = numero;
+        return valido;
+    }
+
+    private static void escribirCabecera(FileChannel canal, long primerRegistro) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(TAMANIO_CABECERA)
+                .putInt(MAGICO).put(VERSION).putLong(primerRegistro).flip();
+        while (cabecera.hasRemaining()) {
+            canal.write(cabecera);
+        }
+    }
+
+    private static void aplicar(DataInputStream entrada, Biblioteca biblioteca) throws IOException {
+        byte tipo = entrada.readByte();
+        switch (tipo) {
+            case ALTA_LIBRO -> {
+                String isbn = entrada.readUTF();
+                String titulo = entrada.readUTF();
+                int anio = entrada.readInt();
+                Categoria categoria = Categoria.values()[entrada.readByte()];
+                Libro libro = new Libro(isbn, titulo, anio, categoria, leerAutores(entrada));
+                int ejemplares = entrada.readShort();
+                for (int i = 0; i < ejemplares; i++) {
+                    libro.agregarEjemplar(new Ejemplar(entrada.readUTF(), libro));
+                }
+                biblioteca.altaLibro(libro);
+            }
+            case DATOS_LIBRO -> {
+                Libro libro = biblioteca.buscarLibroPorIsbn(entrada.readUTF());
+                if (libro == null) {
+                    throw new IllegalArgumentException("No existe el libro modificado");
+                }
+                libro.setTitulo(entrada.readUTF());
+                libro.setAnio(entrada.readInt());
+                libro.setCategoria(Categoria.values()[entrada.readByte()]);
+                libro.reproducirAutores(leerAutores(entrada));
+            }
+            case BAJA_LIBRO -> biblioteca.bajaLibroPorIsbn(entrada.readUTF());
+            case EJEMPLAR -> {
+                Libro libro = biblioteca.buscarLibroPorIsbn(entrada.readUTF());
+                if (libro == null) {
+                    throw new IllegalArgumentException("No existe el libro del ejemplar");
+                }
+                libro.agregarEjemplar(new Ejemplar(entrada.readUTF(), libro));
+            }
+            case ALTA_USUARIO -> {
+                String id = entrada.readUTF();
+                String nombre = entrada.readUTF();
+                String email = entrada.readUTF();
+                Direccion direccion = new Direccion(entrada.readUTF(), entrada.readUTF(),
+                        entrada.readUTF(), entrada.readUTF());
+                biblioteca.altaUsuario(new Usuario(id, nombre, email, direccion));
+            }
+            case DATOS_USUARIO -> {
+                Usuario usuario = biblioteca.buscarUsuarioPorId(entrada.readUTF());
+                if (usuario == null) {
+                    throw new IllegalArgumentException("No existe el usuario modificado");
+                }
+                usuario.setNombre(entrada.readUTF());
+                usuario.setEmail(entrada.readUTF());
+                usuario.setDireccion(new Direccion(entrada.readUTF(), entrada.readUTF(),
+                        entrada.readUTF(), entrada.readUTF()));
+            }
+            case BAJA_USUARIO -> biblioteca.bajaUsuario(entrada.readUTF());
+            case PRESTAMO -> biblioteca.prestar(entrada.readUTF(), entrada.readUTF(),
+                    LocalDate.ofEpochDay(entrada.readInt()));
+            case DEVOLUCION -> biblioteca.devolver(entrada.readUTF(), LocalDate.ofEpochDay(entrada.readInt()), false);
+            case RESERVA -> biblioteca.reservar(entrada.readUTF(), entrada.readUTF());
+            case CANCELACION_RESERVA -> biblioteca.cancelarReserva(entrada.readUTF(), entrada.readUTF());
+            case ASIGNACION_RESERVA -> biblioteca.reproducirAsignacion(entrada.readUTF(), entrada.readUTF(),
+                    LocalDate.ofEpochDay(entrada.readInt()));
+            case PAGO_MULTA -> biblioteca.pagarMulta(entrada.readUTF(), entrada.readLong(), false);
+            case TARIFA_MULTAS -> {
+                Categoria[] categorias = Categoria.values();
+                long[] centimosPorDia = new long[entrada.readByte()];
+                for (int i = 0; i < centimosPorDia.length; i++) {
+                    centimosPorDia[i] = entrada.readLong();
+                }
+                TarifaMultas tarifa = new TarifaMultas(0, entrada.readLong());
+                for (int i = 0; i < centimosPorDia.length; i++) {
+                    tarifa = tarifa.conCategoria(categorias[i], centimosPorDia[i]);
+                }
+                biblioteca.setTarifaMultas(tarifa);
+            }
+            default -> throw new IOException("Tipo de registro desconocido: " + tipo);
+        }
+    }
+
+    private static void escribirAutores(DataOutputStream salida, Autor[] autores) throws IOException {
+        salida.writeByte(autores.length);
+        for (Autor autor : autores) {
+            salida.writeUTF(autor.getNombre());
+            salida.writeUTF(autor.getApellidos());
+            salida.writeUTF(autor.getNacionalidad());
+        }
+    }
+
+    private static Autor[] leerAutores(DataInputStream entrada) throws IOException {
+        Autor[] autores = new Autor[entrada.readByte()];
+        for (int i = 0; i < autores.length; i++) {
+            autores[i] = new Autor(entrada.readUTF(), entrada.readUTF(), entrada.readUTF());
+        }
+        return autores;
+    }
+
+    private static void escribirUsuario(DataOutputStream salida, Usuario usuario) throws IOException {
+        salida.writeUTF(usuario.getId());
+        salida.writeUTF(usuario.getNombre());
+        salida.writeUTF(usuario.getEmail());
+        Direccion direccion = usuario.getDireccion();
+        salida.writeUTF(direccion.getVia());
+        salida.writeUTF(direccion.getNumero());
+        salida.writeUTF(direccion.getCodigoPostal());
+        salida.writeUTF(direccion.getLocalidad());
+    }
+
+    private static void escribirEntero(ByteArrayOutputStream salida, int valor) {
+        salida.write(valor >>> 24);
+        salida.write(valor >>> 16);
+        salida.write(valor >>> 8);
+        salida.write(valor);
+    }
+
+    @FunctionalInterface
+    private interface Escritura {
+        void escribir(DataOutputStream salida) throws IOException;
+    }
+}
@@ -26,7 +26,7 @@ public final class Direccion {
     }
 
     private String validarCodigoPostal(String cp) {
-        if (cp == null || !cp.trim().matches("\\d{5}")) {
+        if (!Validaciones.sonDigitos(cp, 5)) {
             throw new IllegalArgumentException("El codigo postal debe tener exactamente 5 digitos");
         }
         return cp.trim();
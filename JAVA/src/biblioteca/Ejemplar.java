@@ -5,11 +5,15 @@ package biblioteca;
  */
 public class Ejemplar {
     private final String codigo;
-    private EstadoLibro estado;
+    private volatile EstadoLibro estado;
     private final Libro libro;
+    private volatile Prestamo prestamoActivo;
+    private int numero = -1;
+    // Posicion en la pila de disponibles del libro, o -1 si no esta en ella.
+    private int posicionDisponible = -1;
 
     public Ejemplar(String codigo, Libro libro) {
-        if (codigo == null || !codigo.trim().matches("[A-Za-z0-9-]{3,20}")) {
+        if (!Validaciones.esCodigo(codigo, 3, 20, true)) {
             throw new IllegalArgumentException("El codigo del ejemplar no es valido");
         }
         if (libro == null) {
@@ -28,21 +32,51 @@ public class Ejemplar {
         return estado;
     }
 
-    public void prestar() {
+    public Prestamo getPrestamoActivo() {
+        return prestamoActivo;
+    }
+
+    public synchronized void prestar(Prestamo prestamo) {
+        if (prestamo == null) {
+            throw new IllegalArgumentException("El prestamo es obligatorio");
+        }
         if (estado == EstadoLibro.PRESTADO) {
             throw new IllegalArgumentException("El ejemplar ya esta prestado");
         }
         estado = EstadoLibro.PRESTADO;
+        prestamoActivo = prestamo;
+        libro.ejemplarPrestado(this);
     }
 
-    public void devolver() {
+    public synchronized void devolver() {
         estado = EstadoLibro.DISPONIBLE;
+        prestamoActivo = null;
+        libro.ejemplarDevuelto(this);
     }
 
     public Libro getLibro() {
         return libro;
     }
 
+    /**
+     * Numero que le asigna la biblioteca al registrarlo, o -1 si no lo tiene.
+     */
+    int getNumero() {
+        return numero;
+    }
+
+    void setNumero(int numero) {
+        this.numero = numero;
+    }
+
+    int getPosicionDisponible() {
+        return posicionDisponible;
+    }
+
+    void setPosicionDisponible(int posicion) {
+        this.posicionDisponible = posicion;
+    }
+
     @Override
     public String toString() {
         return codigo + " (" + estado + ") -> " + libro.getTitulo();
@@ -0,0 +1,232 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.LocalDate;
+
+/**
+ * Escribe las filas de un listado en un destino a medida que se recorren.
+ *
+ * <p>Las filas se acumulan en un unico buffer que se vacia al llegar a
+ * {@value #TAMANIO_BUFFER} caracteres y se reutiliza, de modo que la memoria
+ * no depende del numero de filas. Los listados en CSV y JSON lines de libros
+ * usan las mismas columnas que lee {@link ImportadorCatalogo}.
+ */
+final class EscritorListado {
+    static final long SIN_FECHA = Long.MIN_VALUE;
+    private static final int TAMANIO_BUFFER = 8192;
+    private static final String FIN_LINEA = System.lineSeparator();
+
+    private final Appendable destino;
+    private final FormatoListado formato;
+    private final StringBuilder pendiente;
+    private final StringBuilder campo;
+    private char[] caracteres;
+
+    EscritorListado(Appendable destino, FormatoListado formato) {
+        if (destino == null || formato == null) {
+            throw new IllegalArgumentException("El destino y el formato son obligatorios");
+        }
+        this.destino = destino;
+        this.formato = formato;
+        this.pendiente = new StringBuilder(TAMANIO_BUFFER + 512);
+        this.campo = new StringBuilder(64);
+    }
+
+    void cabeceraLibros() {
+        if (formato == FormatoListado.CSV) {
+            pendiente.append("isbn,titulo,anio,categoria,autores,ejemplares").append(FIN_LINEA);
+        }
+    }
+
+    void cabeceraPrestamos() {
+        if (formato == FormatoListado.CSV) {
+            pendiente.append("ejemplar,isbn,usuario,inicio,limite,devolucion").append(FIN_LINEA);
+        }
+    }
+
+    void libro(Libro libro) throws IOException {
+        switch (formato) {
+            case TEXTO:
+                pendiente.append(libro.toString());
+                break;
+            case CSV:
+                textoCsv(libro.getIsbn()).append(',');
+                textoCsv(libro.getTitulo()).append(',');
+                pendiente.append(libro.getAnio()).append(',').append(libro.getCategoria()).append(',');
+                campo.setLength(0);
+                for (Autor autor : libro.getAutores()) {
+                    if (campo.length() > 0) {
+                        campo.append(';');
+                    }
+                    campo.append(autor.getNombreCompleto());
+                    if (!autor.getNacionalidad().isEmpty()) {
+                        campo.append(" (").append(autor.getNacionalidad()).append(')');
+                    }
+                }
+                textoCsv(campo).append(',');
+                campo.setLength(0);
+                for (Ejemplar ejemplar : libro.getEjemplares()) {
+                    if (campo.length() > 0) {
+                        campo.append(';');
+                    }
+                    campo.append(ejemplar.getCodigo());
+                }
+                textoCsv(campo);
+                break;
+            default:
+                pendiente.append("{\"isbn\":");
+                textoJson(libro.getIsbn()).append(",\"titulo\":");
+                textoJson(libro.getTitulo()).append(",\"anio\":").append(libro.getAnio())
+                        .append(",\"categoria\":\"").append(libro.getCategoria()).append("\",\"autores\":[");
+                Autor[] autores = libro.getAutores();
+                for (int i = 0; i < autores.length; i++) {
+                    pendiente.append(i == 0 ? "{\"nombre\":" : ",{\"nombre\":");
+                    textoJson(autores[i].getNombre()).append(",\"apellidos\":");
+                    textoJson(autores[i].getApellidos()).append(",\"nacionalidad\":");
+                    textoJson(autores[i].getNacionalidad()).append('}');
+                }
+                pendiente.append("],\"ejemplares\":[");
+                Ejemplar[] ejemplares = libro.getEjemplares();
+                for (int i = 0; i < ejemplares.length; i++) {
+                    if (i > 0) {
+                        pendiente.append(',');
+                    }
+                    textoJson(ejemplares[i].getCodigo());
+                }
+                pendiente.append("]}");
+                break;
+        }
+        finFila();
+    }
+
+    /**
+     * Escribe un prestamo con las fechas como dias desde 1970;
+     * {@code devolucion} es {@link #SIN_FECHA} si sigue activo.
+     */
+    void prestamo(Ejemplar ejemplar, Usuario usuario, long inicio, long limite, long devolucion)
+            throws IOException {
+        switch (formato) {
+            case TEXTO:
+                pendiente.append(ejemplar.getCodigo()).append('|').append(usuario.getId()).append('|');
+                fecha(inicio).append('|');
+                fecha(limite).append('|').append(devolucion != SIN_FECHA);
+                break;
+            case CSV:
+                textoCsv(ejemplar.getCodigo()).append(',');
+                textoCsv(ejemplar.getLibro().getIsbn()).append(',');
+                textoCsv(usuario.getId()).append(',');
+                fecha(inicio).append(',');
+                fecha(limite).append(',');
+                if (devolucion != SIN_FECHA) {
+                    fecha(devolucion);
+                }
+                break;
+            default:
+                pendiente.append("{\"ejemplar\":");
+                textoJson(ejemplar.getCodigo()).append(",\"isbn\":");
+                textoJson(ejemplar.getLibro().getIsbn()).append(",\"usuario\":");
+                textoJson(usuario.getId()).append(",\"inicio\":\"");
+                fecha(inicio).append("\",\"limite\":\"");
+                fecha(limite).append("\",\"devolucion\":");
+                if (devolucion == SIN_FECHA) {
+                    pendiente.append("null");
+                } else {
+                    pendiente.append('"');
+                    fecha(devolucion).append('"');
+                }
+                pendiente.append('}');
+                break;
+        }
+        finFila();
+    }
+
+    /**
+     * Escribe lo que quede en el buffer. No cierra el destino.
+     */
+    void terminar() throws IOException {
+        vaciar();
+        if (destino instanceof Writer) {
+            ((Writer) destino).flush();
+        }
+    }
+
+    private void finFila() throws IOException {
+        pendiente.append(FIN_LINEA);
+        if (pendiente.length() >= TAMANIO_BUFFER) {
+            vaciar();
+        }
+    }
+
+    private void vaciar() throws IOException {
+        int longitud = pendiente.length();
+        if (longitud == 0) {
+            return;
+        }
+        if (destino instanceof Writer) {
+            // Se copia a un array reutilizado para no crear un String por bloque.
+            if (caracteres == null || caracteres.length < longitud) {
+                caracteres = new char[Math.max(longitud, TAMANIO_BUFFER + 512)];
+            }
+            pendiente.getChars(0, longitud, caracteres, 0);
+            ((Writer) destino).write(caracteres, 0, longitud);
+        } else {
+            destino.append(pendiente);
+        }
+        pendiente.setLength(0);
+    }
+
+    private StringBuilder fecha(long dia) {
+        LocalDate fecha = LocalDate.ofEpochDay(dia);
+        int anio = fecha.getYear();
+        if (anio < 0 || anio > 9999) {
+            return pendiente.append(fecha);
+        }
+        dosCifras(anio / 100);
+        dosCifras(anio % 100);
+        pendiente.append('-');
+        dosCifras(fecha.getMonthValue());
+        pendiente.append('-');
+        dosCifras(fecha.getDayOfMonth());
+        return pendiente;
+    }
+
+    private void dosCifras(int valor) {
+        pendiente.append((char) ('0' + valor / 10)).append((char) ('0' + valor % 10));
+    }
+
+    private StringBuilder textoCsv(CharSequence texto) {
+        boolean comillas = false;
+        for (int i = 0; i < texto.length() && !comillas; i++) {
+            char c = texto.charAt(i);
+            comillas = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!comillas) {
+            return pendiente.append(texto);
+        }
+        pendiente.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '"') {
+                pendiente.append('"');
+            }
+            pendiente.append(c);
+        }
+        return pendiente.append('"');
+    }
+
+    private StringBuilder textoJson(String texto) {
+        pendiente.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '"' || c == '\\') {
+                pendiente.append('\\').append(c);
+            } else if (c < 0x20) {
+                pendiente.append("\\u00").append(Character.forDigit(c >> 4, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                pendiente.append(c);
+            }
+        }
+        return pendiente.append('"');
+    }
+}
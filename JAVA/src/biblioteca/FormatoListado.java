@@ -0,0 +1,13 @@
+package biblioteca;
+
+/**
+ * Formatos en los que se pueden escribir los listados de la biblioteca.
+ */
+public enum FormatoListado {
+    /** Una linea por elemento, igual que su {@code toString()}. */
+    TEXTO,
+    /** Valores separados por comas con una linea de cabecera. */
+    CSV,
+    /** Un objeto JSON por linea. */
+    JSONL
+}
@@ -0,0 +1,97 @@
+package biblioteca;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Histograma de duraciones en nanosegundos con cubetas de ancho creciente,
+ * como HdrHistogram: cada potencia de dos se parte en
+ * {@value #SUBCUBETAS} cubetas iguales, de modo que el error relativo de un
+ * percentil es menor del 7 % desde 1 ns hasta el maximo de un {@code long}.
+ *
+ * <p>Registrar una duracion es un incremento atomico sin bloqueo ni
+ * creacion de objetos, asi que pueden hacerlo varios hilos a la vez. Las
+ * lecturas recorren las cubetas y pueden no incluir las medidas que se
+ * registran mientras tanto.
+ */
+final class HistogramaLatencias {
+    private static final int BITS_SUBCUBETA = 4;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+    private static final int CUBETAS = (Long.SIZE - BITS_SUBCUBETA) * SUBCUBETAS;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+    void registrar(long nanos) {
+        long valor = Math.max(0, nanos);
+        cuentas.incrementAndGet(cubeta(valor));
+        maximo.accumulate(valor);
+    }
+
+    long total() {
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            total += cuentas.get(i);
+        }
+        return total;
+    }
+
+    long maximo() {
+        return maximo.get();
+    }
+
+    /**
+     * Duracion por debajo de la cual queda el porcentaje indicado de las
+     * medidas, redondeada al limite superior de su cubeta.
+     */
+    long percentil(double porcentaje) {
+        if (porcentaje < 0 || porcentaje > 100) {
+            throw new IllegalArgumentException("El percentil debe estar entre 0 y 100");
+        }
+        long[] copia = new long[CUBETAS];
+        long total = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+            total += copia[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(porcentaje / 100 * total));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo());
+            }
+        }
+        return maximo();
+    }
+
+    void reiniciar() {
+        for (int i = 0; i < CUBETAS; i++) {
+            cuentas.set(i, 0);
+        }
+        maximo.reset();
+    }
+
+    static int cubeta(long valor) {
+        if (valor < SUBCUBETAS) {
+            return (int) valor;
+        }
+        int exponente = Long.SIZE - 1 - Long.numberOfLeadingZeros(valor);
+        int desplazamiento = exponente - BITS_SUBCUBETA;
+        int sub = (int) (valor >>> desplazamiento) - SUBCUBETAS;
+        return SUBCUBETAS + desplazamiento * SUBCUBETAS + sub;
+    }
+
+    static long limiteSuperior(int cubeta) {
+        if (cubeta < SUBCUBETAS) {
+            return cubeta;
+        }
+        int desplazamiento = (cubeta - SUBCUBETAS) / SUBCUBETAS;
+        long sub = (cubeta - SUBCUBETAS) % SUBCUBETAS;
+        long inferior = (SUBCUBETAS + sub) << desplazamiento;
+        return inferior + (1L << desplazamiento) - 1;
+    }
+}
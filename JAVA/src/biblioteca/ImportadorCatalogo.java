@@ -0,0 +1,538 @@
+package biblioteca;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Carga libros en una biblioteca desde un fichero CSV o JSON lines, leyendo
+ * fila a fila, de modo que la memoria usada no depende del tamanio del
+ * fichero.
+ *
+ * <p>Cada fila se valida con los constructores de {@link Libro},
+ * {@link Autor} y {@link Ejemplar}; al registrarlos, la biblioteca hace que
+ * los libros de un mismo autor compartan su instancia. Los libros se
+ * registran por lotes con
+ * {@link Biblioteca#altaLibros(List, java.util.function.BiConsumer)} y las
+ * filas rechazadas se escriben, con su numero de linea y el motivo, en el
+ * informe de errores.
+ *
+ * <p>En CSV la primera linea puede ser la cabecera y las columnas son
+ * {@code isbn,titulo,anio,categoria,autores,ejemplares}. Los autores van
+ * separados por {@code ;} con la forma {@code Apellidos, Nombre (Nacionalidad)}
+ * y los codigos de ejemplar tambien por {@code ;}. En JSON lines cada linea es
+ * un objeto con esos mismos campos; {@code autores} es una lista de objetos con
+ * {@code nombre}, {@code apellidos} y {@code nacionalidad}, y
+ * {@code ejemplares} una lista de codigos.
+ */
+public final class ImportadorCatalogo {
+    public static final int TAMANIO_LOTE = 1000;
+
+    /**
+     * Formatos de fichero admitidos.
+     */
+    public enum Formato {
+        CSV,
+        JSONL;
+
+        /**
+         * Deduce el formato de la extension del fichero.
+         */
+        public static Formato deFichero(Path fichero) {
+            String nombre = fichero.getFileName().toString().toLowerCase(Locale.ROOT);
+            if (nombre.endsWith(".csv")) {
+                return CSV;
+            }
+            if (nombre.endsWith(".jsonl") || nombre.endsWith(".ndjson")) {
+                return JSONL;
+            }
+            throw new IllegalArgumentException("Formato de fichero no admitido: " + fichero.getFileName());
+        }
+    }
+
+    /**
+     * Totales de una importacion.
+     */
+    public static final class Resumen {
+        private final int leidas;
+        private final int importadas;
+        private final int rechazadas;
+
+        private Resumen(int leidas, int importadas, int rechazadas) {
+            this.leidas = leidas;
+            this.importadas = importadas;
+            this.rechazadas = rechazadas;
+        }
+
+        public int getLeidas() {
+            return leidas;
+        }
+
+        public int getImportadas() {
+            return importadas;
+        }
+
+        public int getRechazadas() {
+            return rechazadas;
+        }
+
+        @Override
+        public String toString() {
+            return "Filas leidas: " + leidas + ", importadas: " + importadas + ", rechazadas: " + rechazadas;
+        }
+    }
+
+    private final Biblioteca biblioteca;
+    private final List<Libro> lote;
+    // Linea de cada libro del lote, para informar de los rechazados.
+    private final Map<Libro, Integer> lineasLote;
+    private Appendable errores;
+    private int leidas;
+    private int importadas;
+    private int rechazadas;
+
+    public ImportadorCatalogo(Biblioteca biblioteca) {
+        if (biblioteca == null) {
+            throw new IllegalArgumentException("La biblioteca es obligatoria");
+        }
+        this.biblioteca = biblioteca;
+        this.lote = new ArrayList<>(TAMANIO_LOTE);
+        this.lineasLote = new IdentityHashMap<>(TAMANIO_LOTE);
+    }
+
+    /**
+     * Importa el fichero, con el formato que indique su extension, y escribe
+     * los rechazos en {@code informeErrores}.
+     */
+    public Resumen importar(Path fichero, Path informeErrores) throws IOException {
+        if (fichero == null || informeErrores == null) {
+            throw new IllegalArgumentException("El fichero y el informe de errores son obligatorios");
+        }
+        Formato formato = Formato.deFichero(fichero);
+        try (Reader entrada = Files.newBufferedReader(fichero, StandardCharsets.UTF_8);
+             Writer informe = Files.newBufferedWriter(informeErrores, StandardCharsets.UTF_8)) {
+            return importar(entrada, formato, informe);
+        }
+    }
+
+    public Resumen importar(Reader entrada, Formato formato, Appendable informeErrores) throws IOException {
+        if (entrada == null || formato == null || informeErrores == null) {
+            throw new IllegalArgumentException("La entrada, el formato y el informe de errores son obligatorios");
+        }
+        this.errores = informeErrores;
+        leidas = 0;
+        importadas = 0;
+        rechazadas = 0;
+        BufferedReader lector = entrada instanceof BufferedReader
+                ? (BufferedReader) entrada : new BufferedReader(entrada, 1 << 16);
+        if (formato == Formato.CSV) {
+            leerCsv(lector);
+        } else {
+            leerJsonl(lector);
+        }
+        registrarLote();
+        if (informeErrores instanceof BufferedWriter) {
+            ((BufferedWriter) informeErrores).flush();
+        }
+        return new Resumen(leidas, importadas, rechazadas);
+    }
+
+    private void leerCsv(BufferedReader lector) throws IOException {
+        int numeroLinea = 0;
+        String linea;
+        List<String> campos = new ArrayList<>(6);
+        StringBuilder campo = new StringBuilder();
+        while ((linea = lector.readLine()) != null) {
+            numeroLinea++;
+            int lineaFila = numeroLinea;
+            if (linea.isBlank()) {
+                continue;
+            }
+            if (lineaFila == 1 && linea.toLowerCase(Locale.ROOT).startsWith("isbn")) {
+                continue;
+            }
+            campos.clear();
+            campo.setLength(0);
+            boolean entreComillas = false;
+            while (true) {
+                for (int i = 0; i < linea.length(); i++) {
+                    char c = linea.charAt(i);
+                    if (entreComillas) {
+                        if (c == '"' && i + 1 < linea.length() && linea.charAt(i + 1) == '"') {
+                            campo.append('"');
+                            i++;
+                        } else if (c == '"') {
+                            entreComillas = false;
+                        } else {
+                            campo.append(c);
+                        }
+                    } else if (c == '"') {
+                        entreComillas = true;
+                    } else if (c == ',') {
+                        campos.add(campo.toString());
+                        campo.setLength(0);
+                    } else {
+                        campo.append(c);
+                    }
+                }
+                if (!entreComillas) {
+                    break;
+                }
+                // Un campo entre comillas puede seguir en la linea siguiente.
+                linea = lector.readLine();
+                if (linea == null) {
+                    break;
+                }
+                numeroLinea++;
+                campo.append('\n');
+            }
+            campos.add(campo.toString());
+            leidas++;
+            try {
+                if (entreComillas) {
+                    throw new IllegalArgumentException("Falta cerrar unas comillas");
+                }
+                if (campos.size() != 6) {
+                    throw new IllegalArgumentException("Se esperaban 6 columnas y hay " + campos.size());
+                }
+                agregar(libroCsv(campos), lineaFila);
+            } catch (IllegalArgumentException e) {
+                rechazar(lineaFila, e.getMessage());
+            }
+        }
+    }
+
+    private Libro libroCsv(List<String> campos) {
+        String[] textosAutores = campos.get(4).split(";");
+        Autor[] autoresLibro = new Autor[textosAutores.length];
+        for (int i = 0; i < textosAutores.length; i++) {
+            autoresLibro[i] = autorCsv(textosAutores[i]);
+        }
+        Libro libro = new Libro(campos.get(0), campos.get(1), anio(campos.get(2)),
+                categoria(campos.get(3)), autoresLibro);
+        for (String codigo : campos.get(5).split(";")) {
+            if (!codigo.isBlank()) {
+                libro.agregarEjemplar(new Ejemplar(codigo, libro));
+            }
+        }
+        return libro;
+    }
+
+    /**
+     * Lee un autor con la forma {@code Apellidos, Nombre (Nacionalidad)}, la
+     * misma de {@link Autor#toString()}.
+     */
+    private Autor autorCsv(String texto) {
+        String resto = texto.trim();
+        String nacionalidad = "";
+        if (resto.endsWith(")")) {
+            int apertura = resto.lastIndexOf('(');
+            if (apertura > 0) {
+                nacionalidad = resto.substring(apertura + 1, resto.length() - 1);
+                resto = resto.substring(0, apertura);
+            }
+        }
+        int coma = resto.indexOf(',');
+        if (coma < 0) {
+            throw new IllegalArgumentException("El autor debe tener la forma Apellidos, Nombre: " + texto.trim());
+        }
+        return new Autor(resto.substring(coma + 1), resto.substring(0, coma), nacionalidad);
+    }
+
+    private void leerJsonl(BufferedReader lector) throws IOException {
+        int numeroLinea = 0;
+        String linea;
+        while ((linea = lector.readLine()) != null) {
+            numeroLinea++;
+            if (linea.isBlank()) {
+                continue;
+            }
+            leidas++;
+            try {
+                agregar(libroJson(new LectorJson(linea).objeto()), numeroLinea);
+            } catch (IllegalArgumentException e) {
+                rechazar(numeroLinea, e.getMessage());
+            }
+        }
+    }
+
+    private Libro libroJson(Map<String, Object> fila) {
+        List<Object> listaAutores = lista(fila, "autores");
+        Autor[] autoresLibro = new Autor[listaAutores.size()];
+        for (int i = 0; i < autoresLibro.length; i++) {
+            if (!(listaAutores.get(i) instanceof Map)) {
+                throw new IllegalArgumentException("Cada autor debe ser un objeto");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> datos = (Map<String, Object>) listaAutores.get(i);
+            autoresLibro[i] = new Autor(texto(datos, "nombre"), texto(datos, "apellidos"), texto(datos, "nacionalidad"));
+        }
+        Libro libro = new Libro(texto(fila, "isbn"), texto(fila, "titulo"), anio(texto(fila, "anio")),
+                categoria(texto(fila, "categoria")), autoresLibro);
+        for (Object codigo : lista(fila, "ejemplares")) {
+            libro.agregarEjemplar(new Ejemplar(codigo == null ? null : codigo.toString(), libro));
+        }
+        return libro;
+    }
+
+    private static String texto(Map<String, Object> fila, String campo) {
+        Object valor = fila.get(campo);
+        return valor == null ? null : valor.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> lista(Map<String, Object> fila, String campo) {
+        Object valor = fila.get(campo);
+        if (valor == null) {
+            return List.of();
+        }
+        if (!(valor instanceof List)) {
+            throw new IllegalArgumentException("El campo " + campo + " debe ser una lista");
+        }
+        return (List<Object>) valor;
+    }
+
+    private static int anio(String texto) {
+        try {
+            return Integer.parseInt(texto == null ? "" : texto.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("El anio no es un numero: " + texto);
+        }
+    }
+
+    private static Categoria categoria(String texto) {
+        try {
+            return Categoria.valueOf(texto == null ? "" : texto.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Categoria invalida: " + texto);
+        }
+    }
+
+    private void agregar(Libro libro, int numeroLinea) throws IOException {
+        lote.add(libro);
+        lineasLote.put(libro, numeroLinea);
+        if (lote.size() == TAMANIO_LOTE) {
+            registrarLote();
+        }
+    }
+
+    private void registrarLote() throws IOException {
+        if (lote.isEmpty()) {
+            return;
+        }
+        List<String> fallos = new ArrayList<>();
+        importadas += biblioteca.altaLibros(lote, (libro, motivo) ->
+                fallos.add("linea " + lineasLote.get(libro) + ": " + motivo));
+        for (String fallo : fallos) {
+            errores.append(fallo).append(System.lineSeparator());
+        }
+        rechazadas += fallos.size();
+        lote.clear();
+        lineasLote.clear();
+    }
+
+    private void rechazar(int numeroLinea, String motivo) throws IOException {
+        rechazadas++;
+        errores.append("linea ").append(String.valueOf(numeroLinea)).append(": ")
+                .append(motivo).append(System.lineSeparator());
+    }
+
+    /**
+     * Lector de un objeto JSON escrito en una sola linea. Solo admite lo que
+     * necesita el importador: objetos, listas, textos, numeros, booleanos y
+     * {@code null}.
+     */
+    private static final class LectorJson {
+        private final String texto;
+        private int posicion;
+
+        LectorJson(String texto) {
+            this.texto = texto;
+        }
+
+        Map<String, Object> objeto() {
+            Object valor = valor();
+            saltarEspacios();
+            if (!(valor instanceof Map) || posicion != texto.length()) {
+                throw new IllegalArgumentException("Cada linea debe ser un objeto JSON");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> objeto = (Map<String, Object>) valor;
+            return objeto;
+        }
+
+        private Object valor() {
+            saltarEspacios();
+            if (posicion >= texto.length()) {
+                throw error();
+            }
+            char c = texto.charAt(posicion);
+            switch (c) {
+                case '{':
+                    return leerObjeto();
+                case '[':
+                    return leerLista();
+                case '"':
+                    return leerTexto();
+                default:
+                    return leerLiteral();
+            }
+        }
+
+        private Map<String, Object> leerObjeto() {
+            Map<String, Object> objeto = new HashMap<>();
+            posicion++;
+            saltarEspacios();
+            if (consumir('}')) {
+                return objeto;
+            }
+            do {
+                saltarEspacios();
+                if (posicion >= texto.length() || texto.charAt(posicion) != '"') {
+                    throw error();
+                }
+                String clave = leerTexto();
+                saltarEspacios();
+                if (!consumir(':')) {
+                    throw error();
+                }
+                objeto.put(clave, valor());
+                saltarEspacios();
+            } while (consumir(','));
+            if (!consumir('}')) {
+                throw error();
+            }
+            return objeto;
+        }
+
+        private List<Object> leerLista() {
+            List<Object> lista = new ArrayList<>();
+            posicion++;
+            saltarEspacios();
+            if (consumir(']')) {
+                return lista;
+            }
+            do {
+                lista.add(valor());
+                saltarEspacios();
+            } while (consumir(','));
+            if (!consumir(']')) {
+                throw error();
+            }
+            return lista;
+        }
+
+        private String leerTexto() {
+            posicion++;
+            StringBuilder sb = null;
+            int inicio = posicion;
+            while (posicion < texto.length()) {
+                char c = texto.charAt(posicion);
+                if (c == '"') {
+                    String parte = texto.substring(inicio, posicion);
+                    posicion++;
+                    return sb == null ? parte : sb.append(parte).toString();
+                }
+                if (c == '\\') {
+                    if (sb == null) {
+                        sb = new StringBuilder();
+                    }
+                    sb.append(texto, inicio, posicion);
+                    sb.append(escape());
+                    inicio = posicion;
+                } else {
+                    posicion++;
+                }
+            }
+            throw error();
+        }
+
+        private char escape() {
+            if (posicion + 1 >= texto.length()) {
+                throw error();
+            }
+            char c = texto.charAt(posicion + 1);
+            posicion += 2;
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    return c;
+                case 'b':
+                    return '\b';
+                case 'f':
+                    return '\f';
+                case 'n':
+                    return '\n';
+                case 'r':
+                    return '\r';
+                case 't':
+                    return '\t';
+                case 'u':
+                    if (posicion + 4 > texto.length()) {
+                        throw error();
+                    }
+                    try {
+                        char unicode = (char) Integer.parseInt(texto.substring(posicion, posicion + 4), 16);
+                        posicion += 4;
+                        return unicode;
+                    } catch (NumberFormatException e) {
+                        throw error();
+                    }
+                default:
+                    throw error();
+            }
+        }
+
+        private Object leerLiteral() {
+            int inicio = posicion;
+            while (posicion < texto.length() && ",}] \t".indexOf(texto.charAt(posicion)) < 0) {
+                posicion++;
+            }
+            String literal = texto.substring(inicio, posicion);
+            switch (literal) {
+                case "null":
+                    return null;
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                default:
+                    try {
+                        return literal.contains(".") ? (Object) Double.valueOf(literal) : (Object) Long.valueOf(literal);
+                    } catch (NumberFormatException e) {
+                        throw error();
+                    }
+            }
+        }
+
+        private boolean consumir(char esperado) {
+            if (posicion < texto.length() && texto.charAt(posicion) == esperado) {
+                posicion++;
+                return true;
+            }
+            return false;
+        }
+
+        private void saltarEspacios() {
+            while (posicion < texto.length() && Character.isWhitespace(texto.charAt(posicion))) {
+                posicion++;
+            }
+        }
+
+        private IllegalArgumentException error() {
+            return new IllegalArgumentException("JSON mal formado cerca de la posicion " + (posicion + 1));
+        }
+    }
+}
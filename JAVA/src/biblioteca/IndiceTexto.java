@@ -0,0 +1,170 @@
+package biblioteca;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Consumer;
+
+/**
+ * Indice invertido sobre el titulo y los autores de los libros, ya
+ * normalizados sin tildes ni mayusculas.
+ *
+ * <p>Guarda dos tablas: los trigramas de cada texto, que permiten resolver la
+ * busqueda por subcadena de {@link Libro#matches(String)} sin recorrer todo el
+ * catalogo, y las palabras completas ordenadas, que permiten buscar por prefijo.
+ *
+ * <p>Las modificaciones deben llegar de una en una; las consultas pueden
+ * hacerse a la vez que se modifica y no bloquean.
+ */
+final class IndiceTexto {
+    static final int LONGITUD_NGRAMA = 3;
+
+    private final ConcurrentMap<String, Set<Libro>> porTrigrama;
+    private final ConcurrentNavigableMap<String, Set<Libro>> porPalabra;
+    private final Map<Libro, String[]> textosIndexados;
+
+    IndiceTexto() {
+        this.porTrigrama = new ConcurrentHashMap<>();
+        this.porPalabra = new ConcurrentSkipListMap<>();
+        this.textosIndexados = new IdentityHashMap<>();
+    }
+
+    void indexar(Libro libro) {
+        String[] textos = {libro.getTituloNormalizado(), libro.getAutoresNormalizados()};
+        textosIndexados.put(libro, textos);
+        for (String texto : textos) {
+            for (String trigrama : trigramas(texto)) {
+                porTrigrama.computeIfAbsent(trigrama, k -> ConcurrentHashMap.newKeySet()).add(libro);
+            }
+            for (String palabra : palabras(texto)) {
+                porPalabra.computeIfAbsent(palabra, k -> ConcurrentHashMap.newKeySet()).add(libro);
+            }
+        }
+    }
+
+    void desindexar(Libro libro) {
+        String[] textos = textosIndexados.remove(libro);
+        if (textos == null) {
+            return;
+        }
+        for (String texto : textos) {
+            for (String trigrama : trigramas(texto)) {
+                quitar(porTrigrama, trigrama, libro);
+            }
+            for (String palabra : palabras(texto)) {
+                quitar(porPalabra, palabra, libro);
+            }
+        }
+    }
+
+    void reindexar(Libro libro) {
+        desindexar(libro);
+        indexar(libro);
+    }
+
+    /**
+     * Indica si el patron es lo bastante largo para resolverse con trigramas.
+     */
+    static boolean admitePatron(String patronNormalizado) {
+        return patronNormalizado.length() >= LONGITUD_NGRAMA;
+    }
+
+    /**
+     * Libros cuyo titulo o autores contienen el patron normalizado, que debe
+     * tener al menos {@link #LONGITUD_NGRAMA} caracteres.
+     */
+    List<Libro> buscar(String patronNormalizado) {
+        List<Libro> resultado = new ArrayList<>();
+        recorrer(patronNormalizado, resultado::add);
+        return resultado;
+    }
+
+    /**
+     * Entrega cada libro que contiene el patron sin reunirlos en una coleccion,
+     * para quien solo necesita quedarse con una parte de ellos.
+     */
+    void recorrer(String patronNormalizado, Consumer<Libro> accion) {
+        List<Set<Libro>> listas = new ArrayList<>();
+        Set<Libro> menor = null;
+        for (String trigrama : trigramas(patronNormalizado)) {
+            Set<Libro> lista = porTrigrama.get(trigrama);
+            if (lista == null) {
+                return;
+            }
+            listas.add(lista);
+            if (menor == null || lista.size() < menor.size()) {
+                menor = lista;
+            }
+        }
+        if (menor == null) {
+            return;
+        }
+        for (Libro libro : menor) {
+            if (estaEnTodas(libro, listas) && libro.coincideCon(patronNormalizado)) {
+                accion.accept(libro);
+            }
+        }
+    }
+
+    /**
+     * Libros con alguna palabra del titulo o de los autores que empieza por el
+     * prefijo normalizado.
+     */
+    List<Libro> buscarPorPrefijo(String prefijoNormalizado) {
+        Set<Libro> resultado = new LinkedHashSet<>();
+        for (Set<Libro> lista : porPalabra.subMap(prefijoNormalizado, true,
+                prefijoNormalizado + Character.MAX_VALUE, false).values()) {
+            resultado.addAll(lista);
+        }
+        return new ArrayList<>(resultado);
+    }
+
+    private static boolean estaEnTodas(Libro libro, List<Set<Libro>> listas) {
+        for (Set<Libro> lista : listas) {
+            if (!lista.contains(libro)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void quitar(Map<String, Set<Libro>> tabla, String clave, Libro libro) {
+        Set<Libro> lista = tabla.get(clave);
+        if (lista != null) {
+            lista.remove(libro);
+            if (lista.isEmpty()) {
+                tabla.remove(clave);
+            }
+        }
+    }
+
+    private static Set<String> trigramas(String texto) {
+        Set<String> resultado = new LinkedHashSet<>();
+        for (int i = 0; i + LONGITUD_NGRAMA <= texto.length(); i++) {
+            resultado.add(texto.substring(i, i + LONGITUD_NGRAMA));
+        }
+        return resultado;
+    }
+
+    private static Set<String> palabras(String texto) {
+        Set<String> resultado = new LinkedHashSet<>();
+        int inicio = -1;
+        for (int i = 0; i <= texto.length(); i++) {
+            boolean letra = i < texto.length() && Character.isLetterOrDigit(texto.charAt(i));
+            if (letra && inicio == -1) {
+                inicio = i;
+            } else if (!letra && inicio != -1) {
+                resultado.add(texto.substring(inicio, i));
+                inicio = -1;
+            }
+        }
+        return resultado;
+    }
+}
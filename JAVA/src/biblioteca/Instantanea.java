@@ -0,0 +1,433 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copia completa del estado de una biblioteca (libros con sus ejemplares,
+ * usuarios con sus pagos de multas, todos los prestamos, las reservas y la
+ * tarifa de multas) que permite arrancar sin reproducir el {@link Diario}
+ * desde el principio: basta cargarla y aplicar los registros posteriores a
+ * {@link #getRegistro()}.
+ *
+ * <p>La circulacion solo se detiene mientras {@link Biblioteca#capturar()}
+ * anota cuantas filas tiene el {@link ArchivoPrestamos} y copia los prestamos
+ * activos. Las filas del archivo se recorren despues, al escribir, sin
+ * bloquear, porque no cambian una vez escritas.
+ *
+ * <p>El formato usa enteros de longitud variable, fechas como diferencia con
+ * la anterior y guarda una sola vez cada texto repetido (autores,
+ * localidades...). Ejemplares y usuarios se identifican por su numero.
+ */
+final class Instantanea {
+    private static final int MAGICO = 0x42494249;
+    private static final byte VERSION = 6;
+
+    private final long registro;
+    private final Libro[] libros;
+    private final Ejemplar[][] ejemplares;
+    private final Usuario[] usuarios;
+    private final boolean[] registrados;
+    private final ArchivoPrestamos archivo;
+    private final int archivados;
+    private final Prestamo[] activos;
+    private final Map<Libro, Usuario[]> reservas;
+    private final TarifaMultas tarifa;
+    private final long[] multasPagadas;
+
+    /**
+     * @param usuarios    todos los usuarios numerados, en orden de numero,
+     *                    incluidos los dados de baja que siguen en el archivo
+     * @param registrados indica cuales de ellos seguian dados de alta
+     * @param archivados  filas del archivo que entran en la instantanea
+     * @param reservas    cola de cada libro que tiene alguna reserva
+     * @param tarifa      tarifa de multas vigente al marcar la instantanea
+     * @param multasPagadas lo pagado en multas por cada usuario, en el mismo
+     *                    orden; lo generado se recalcula al cargar
+     */
+    Instantanea(long registro, Libro[] libros, Ejemplar[][] ejemplares, Usuario[] usuarios,
+                boolean[] registrados, ArchivoPrestamos archivo, int archivados, Prestamo[] activos,
+                Map<Libro, Usuario[]> reservas, TarifaMultas tarifa, long[] multasPagadas) {
+        this.registro = registro;
+        this.libros = libros;
+        this.ejemplares = ejemplares;
+        this.usuarios = usuarios;
+        this.registrados = registrados;
+        this.archivo = archivo;
+        this.archivados = archivados;
+        this.activos = activos;
+        this.reservas = reservas;
+        this.tarifa = tarifa;
+        this.multasPagadas = multasPagadas;
+    }
+
+    /**
+     * Numero del ultimo registro del diario incluido en la instantanea.
+     */
+    long getRegistro() {
+        return registro;
+    }
+
+    void escribir(Path destino) throws IOException {
+        try (FileChannel canal = FileChannel.open(destino, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Codificador salida = new Codificador(canal);
+            salida.entero(MAGICO);
+            salida.octeto(VERSION);
+            salida.varLong(registro);
+            Categoria[] categorias = Categoria.values();
+            salida.varInt(categorias.length);
+            for (Categoria categoria : categorias) {
+                salida.varLong(tarifa.getCentimosPorDia(categoria));
+            }
+            salida.varLong(tarifa.getTopePorPrestamo());
+
+            int totalEjemplares = 0;
+            for (Ejemplar[] delLibro : ejemplares) {
+                totalEjemplares = Math.max(totalEjemplares, maximoNumero(delLibro) + 1);
+            }
+            salida.varInt(totalEjemplares);
+            salida.varInt(libros.length);
+            for (int i = 0; i < libros.length; i++) {
+                Libro libro = libros[i];
+                salida.textoUnico(libro.getIsbn());
+                salida.textoUnico(libro.getTitulo());
+                salida.varInt(libro.getAnio());
+                salida.varInt(libro.getCategoria().ordinal());
+                Autor[] autores = libro.getAutores();
+                salida.varInt(autores.length);
+                for (Autor autor : autores) {
+                    salida.texto(autor.getNombre());
+                    salida.texto(autor.getApellidos());
+                    salida.texto(autor.getNacionalidad());
+                }
+                salida.varInt(ejemplares[i].length);
+                for (Ejemplar ejemplar : ejemplares[i]) {
+                    salida.textoUnico(ejemplar.getCodigo());
+                    salida.varInt(ejemplar.getNumero());
+                }
+            }
+
+            salida.varInt(usuarios.length);
+            for (int i = 0; i < usuarios.length; i++) {
+                salida.octeto(registrados[i] ? 1 : 0);
+                Usuario usuario = usuarios[i];
+                salida.textoUnico(usuario.getId());
+                salida.texto(usuario.getNombre());
+                salida.textoUnico(usuario.getEmail());
+                Direccion direccion = usuario.getDireccion();
+                salida.textoUnico(direccion.getVia());
+                salida.texto(direccion.getNumero());
+                salida.texto(direccion.getCodigoPostal());
+                salida.texto(direccion.getLocalidad());
+                salida.varLong(multasPagadas[i]);
+            }
+
+            // Las filas del archivo ya no cambian, asi que se leen sin bloquear
+            // aunque sigan llegando devoluciones.
+            salida.varInt(archivados);
+            long diaAnterior = 0;
+            for (int fila = 0; fila < archivados; fila++) {
+                salida.varInt(archivo.ejemplar(fila));
+                salida.varInt(archivo.usuario(fila));
+                int inicio = archivo.inicio(fila);
+                salida.varLongConSigno(inicio - diaAnterior);
+                diaAnterior = inicio;
+                salida.varInt(archivo.limite(fila) - inicio);
+                salida.varInt(archivo.devolucion(fila) - inicio);
+            }
+
+            salida.varInt(activos.length);
+            for (Prestamo prestamo : activos) {
+                salida.varInt(prestamo.getEjemplar().getNumero());
+                salida.varInt(prestamo.getUsuario().getNumero());
+                salida.varLongConSigno(prestamo.getDiaInicio());
+            }
+
+            // Cada cola se identifica por la posicion del libro en la instantanea.
+            salida.varInt(reservas.size());
+            for (int i = 0; i < libros.length; i++) {
+                Usuario[] cola = reservas.get(libros[i]);
+                if (cola != null) {
+                    salida.varInt(i);
+                    salida.varInt(cola.length);
+                    for (Usuario usuario : cola) {
+                        salida.varInt(usuario.getNumero());
+                    }
+                }
+            }
+            salida.volcar();
+            canal.force(true);
+        }
+    }
+
+    /**
+     * Carga la instantanea sobre una biblioteca vacia y devuelve el numero del
+     * ultimo registro del diario que incluye.
+     */
+    static long cargar(Path origen, Biblioteca biblioteca) throws IOException {
+        ByteBuffer datos;
+        try (FileChannel canal = FileChannel.open(origen, StandardOpenOption.READ)) {
+            datos = canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size());
+        }
+        Decodificador entrada = new Decodificador(datos);
+        try {
+            if (entrada.entero() != MAGICO) {
+                throw new IOException("El fichero no es una instantanea de biblioteca: " + origen);
+            }
+            int version = entrada.octeto();
+            if (version != VERSION) {
+                throw new IOException("El fichero no es una instantanea de biblioteca: " + origen);
+            }
+            long registro = entrada.varLong();
+            Categoria[] categorias = Categoria.values();
+            // Antes de los prestamos, que cargan sus multas con ella.
+            long[] centimosPorDia = new long[entrada.varInt()];
+            for (int i = 0; i < centimosPorDia.length; i++) {
+                centimosPorDia[i] = entrada.varLong();
+            }
+            TarifaMultas tarifa = new TarifaMultas(0, entrada.varLong());
+            for (int i = 0; i < centimosPorDia.length; i++) {
+                tarifa = tarifa.conCategoria(categorias[i], centimosPorDia[i]);
+            }
+            biblioteca.setTarifaMultas(tarifa);
+
+            // Los numeros de la instantanea se traducen a los que asigne ahora
+            // la biblioteca, que pueden ser otros.
+            Ejemplar[] ejemplares = new Ejemplar[entrada.varInt()];
+            Libro[] libros = new Libro[entrada.varInt()];
+            for (int i = 0; i < libros.length; i++) {
+                String isbn = entrada.texto();
+                String titulo = entrada.texto();
+                int anio = entrada.varInt();
+                Categoria categoria = categorias[entrada.varInt()];
+                Autor[] autores = new Autor[entrada.varInt()];
+                for (int j = 0; j < autores.length; j++) {
+                    autores[j] = new Autor(entrada.texto(), entrada.texto(), entrada.texto());
+                }
+                Libro libro = new Libro(isbn, titulo, anio, categoria, autores);
+                int totalEjemplares = entrada.varInt();
+                for (int j = 0; j < totalEjemplares; j++) {
+                    Ejemplar ejemplar = new Ejemplar(entrada.texto(), libro);
+                    libro.agregarEjemplar(ejemplar);
+                    ejemplares[entrada.varInt()] = ejemplar;
+                }
+                biblioteca.altaLibro(libro);
+                libros[i] = libro;
+            }
+
+            Usuario[] usuarios = new Usuario[entrada.varInt()];
+            for (int i = 0; i < usuarios.length; i++) {
+                boolean registrado = entrada.octeto() != 0;
+                String id = entrada.texto();
+                String nombre = entrada.texto();
+                String email = entrada.texto();
+                Direccion direccion = new Direccion(entrada.texto(), entrada.texto(), entrada.texto(), entrada.texto());
+                usuarios[i] = new Usuario(id, nombre, email, direccion);
+                usuarios[i].setMultasPagadas(entrada.varLong());
+                if (registrado) {
+                    biblioteca.altaUsuario(usuarios[i]);
+                } else {
+                    biblioteca.restaurarUsuarioDeBaja(usuarios[i]);
+                }
+            }
+
+            int archivados = entrada.varInt();
+            long dia = 0;
+            for (int fila = 0; fila < archivados; fila++) {
+                Ejemplar ejemplar = existente(ejemplares, entrada.varInt());
+                Usuario usuario = existente(usuarios, entrada.varInt());
+                dia += entrada.varLongConSigno();
+                int inicio = Math.toIntExact(dia);
+                int limite = inicio + entrada.varInt();
+                int devolucion = inicio + entrada.varInt();
+                biblioteca.restaurarArchivado(ejemplar, usuario, inicio, limite, devolucion);
+            }
+
+            int activos = entrada.varInt();
+            for (int i = 0; i < activos; i++) {
+                Ejemplar ejemplar = existente(ejemplares, entrada.varInt());
+                Usuario usuario = existente(usuarios, entrada.varInt());
+                new Prestamo(ejemplar, usuario, LocalDate.ofEpochDay(entrada.varLongConSigno()));
+            }
+
+            int colas = entrada.varInt();
+            for (int i = 0; i < colas; i++) {
+                Libro libro = existente(libros, entrada.varInt());
+                int enCola = entrada.varInt();
+                for (int j = 0; j < enCola; j++) {
+                    biblioteca.restaurarReserva(libro, existente(usuarios, entrada.varInt()));
+                }
+            }
+            return registro;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException | BufferUnderflowException
+                 | ArithmeticException e) {
+            throw new IOException("La instantanea esta danada: " + origen, e);
+        }
+    }
+
+    private static int maximoNumero(Ejemplar[] ejemplares) {
+        int maximo = -1;
+        for (Ejemplar ejemplar : ejemplares) {
+            maximo = Math.max(maximo, ejemplar.getNumero());
+        }
+        return maximo;
+    }
+
+    private static <T> T existente(T[] elementos, int numero) {
+        T elemento = elementos[numero];
+        if (elemento == null) {
+            throw new IllegalArgumentException("Numero sin definir en la instantanea: " + numero);
+        }
+        return elemento;
+    }
+
+    /**
+     * Escribe en un buffer propio que se vuelca al canal al llenarse.
+     *
+     * <p>Cada texto va precedido de una referencia: 0 si sigue a continuacion
+     * y no se espera que se repita (ISBN, codigos, ids, titulos, correos y
+     * calles), 1 si sigue a continuacion y hay que recordarlo, y n + 2 si es
+     * el n-esimo texto recordado.
+     */
+    private static final class Codificador {
+        private final FileChannel canal;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final Map<String, Integer> textos = new HashMap<>();
+
+        Codificador(FileChannel canal) {
+            this.canal = canal;
+        }
+
+        void octeto(int valor) throws IOException {
+            if (!buffer.hasRemaining()) {
+                volcar();
+            }
+            buffer.put((byte) valor);
+        }
+
+        void entero(int valor) throws IOException {
+            octeto(valor >>> 24);
+            octeto(valor >>> 16);
+            octeto(valor >>> 8);
+            octeto(valor);
+        }
+
+        void varInt(int valor) throws IOException {
+            varLong(valor & 0xFFFFFFFFL);
+        }
+
+        void varLong(long valor) throws IOException {
+            while ((valor & ~0x7FL) != 0) {
+                octeto((int) ((valor & 0x7F) | 0x80));
+                valor >>>= 7;
+            }
+            octeto((int) valor);
+        }
+
+        void varLongConSigno(long valor) throws IOException {
+            varLong((valor << 1) ^ (valor >> 63));
+        }
+
+        void texto(String valor) throws IOException {
+            Integer indice = textos.get(valor);
+            if (indice != null) {
+                varInt(indice + 2);
+                return;
+            }
+            textos.put(valor, textos.size());
+            varInt(1);
+            bytes(valor);
+        }
+
+        void textoUnico(String valor) throws IOException {
+            varInt(0);
+            bytes(valor);
+        }
+
+        private void bytes(String valor) throws IOException {
+            byte[] bytes = valor.getBytes(StandardCharsets.UTF_8);
+            varInt(bytes.length);
+            for (byte b : bytes) {
+                octeto(b);
+            }
+        }
+
+        void volcar() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Lee lo escrito por {@link Codificador} desde el fichero proyectado en memoria.
+     */
+    private static final class Decodificador {
+        private final ByteBuffer datos;
+        private final List<String> textos = new ArrayList<>();
+
+        Decodificador(ByteBuffer datos) {
+            this.datos = datos;
+        }
+
+        int octeto() {
+            return datos.get();
+        }
+
+        int entero() {
+            return datos.getInt();
+        }
+
+        int varInt() {
+            long valor = varLong();
+            if (valor > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Entero fuera de rango");
+            }
+            return (int) valor;
+        }
+
+        long varLong() {
+            long valor = 0;
+            for (int desplazamiento = 0; desplazamiento < 64; desplazamiento += 7) {
+                byte b = datos.get();
+                valor |= (long) (b & 0x7F) << desplazamiento;
+                if (b >= 0) {
+                    return valor;
+                }
+            }
+            throw new IllegalArgumentException("Entero de longitud variable mal formado");
+        }
+
+        long varLongConSigno() {
+            long valor = varLong();
+            return (valor >>> 1) ^ -(valor & 1);
+        }
+
+        String texto() {
+            int referencia = varInt();
+            if (referencia > 1) {
+                return textos.get(referencia - 2);
+            }
+            byte[] bytes = new byte[varInt()];
+            datos.get(bytes);
+            String valor = new String(bytes, StandardCharsets.UTF_8);
+            if (referencia == 1) {
+                textos.add(valor);
+            }
+            return valor;
+        }
+    }
+}
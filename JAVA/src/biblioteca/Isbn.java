@@ -0,0 +1,93 @@
+package biblioteca;
+
+/**
+ * Conversion entre el texto de un ISBN-13 y el {@code long} con el que se
+ * guarda y se indexa.
+ */
+final class Isbn {
+    static final int DIGITOS = 13;
+    /**
+     * Valor que devuelve {@link #buscar(String)} para un texto que no es un
+     * ISBN valido; ningun ISBN es negativo.
+     */
+    static final long NINGUNO = -1;
+
+    private Isbn() {
+    }
+
+    /**
+     * Convierte el texto, admitiendo espacios laterales, y comprueba el
+     * digito de control.
+     *
+     * @throws IllegalArgumentException si no son 13 digitos o el de control
+     *                                  no cuadra
+     */
+    static long analizar(String texto) {
+        long isbn = convertir(texto);
+        if (isbn == NINGUNO) {
+            throw new IllegalArgumentException("El ISBN debe tener exactamente 13 digitos");
+        }
+        if (isbn % 10 != digitoControl(isbn / 10)) {
+            throw new IllegalArgumentException("El digito de control del ISBN no es valido");
+        }
+        return isbn;
+    }
+
+    /**
+     * Como {@link #analizar(String)} pero sin excepciones, para las
+     * busquedas: devuelve {@link #NINGUNO} si el texto no es un ISBN valido.
+     */
+    static long buscar(String texto) {
+        long isbn = convertir(texto);
+        if (isbn == NINGUNO || isbn % 10 != digitoControl(isbn / 10)) {
+            return NINGUNO;
+        }
+        return isbn;
+    }
+
+    static String formatear(long isbn) {
+        char[] digitos = new char[DIGITOS];
+        long resto = isbn;
+        for (int i = DIGITOS - 1; i >= 0; i--) {
+            digitos[i] = (char) ('0' + resto % 10);
+            resto /= 10;
+        }
+        return new String(digitos);
+    }
+
+    /**
+     * Digito de control de los 12 primeros digitos: pesos 1 y 3 alternos
+     * empezando por la izquierda.
+     */
+    static int digitoControl(long primerosDoce) {
+        int suma = 0;
+        long resto = primerosDoce;
+        // De derecha a izquierda el ultimo de los doce lleva peso 3.
+        for (int i = 0; i < DIGITOS - 1; i++) {
+            int digito = (int) (resto % 10);
+            suma += (i % 2 == 0) ? 3 * digito : digito;
+            resto /= 10;
+        }
+        return (10 - suma % 10) % 10;
+    }
+
+    private static long convertir(String texto) {
+        if (texto == null) {
+            return NINGUNO;
+        }
+        int inicio = Validaciones.inicio(texto);
+        int fin = Validaciones.fin(texto, inicio);
+        if (fin - inicio != DIGITOS) {
+            return NINGUNO;
+        }
+        long valor = 0;
+        for (int i = inicio; i < fin; i++) {
+            char c = texto.charAt(i);
+            if (c < '0' || c > '9') {
+                return NINGUNO;
+            }
+            valor = valor * 10 + (c - '0');
+        }
+        return valor;
+    }
+}
@@ -1,6 +1,5 @@
 package biblioteca;
 
-import java.text.Normalizer;
 import java.time.LocalDate;
 import java.util.Arrays;
 
@@ -11,22 +10,38 @@ public class Libro implements Comparable<Libro> {
     private static final int MAX_AUTORES = 3;
     private static final int MAX_EJEMPLARES = 50;
 
-    private final String isbn;
+    private final long isbn;
+    // Forma con guiones que devuelve getIsbn(), calculada una vez.
+    private final String isbnFormateado;
     private String titulo;
     private int anio;
     private Categoria categoria;
     private final Autor[] autores;
     private int totalAutores;
     private final Ejemplar[] ejemplares;
-    private int totalEjemplares;
+    private volatile int totalEjemplares;
+    // Pila de ejemplares disponibles; cada ejemplar guarda su posicion en
+    // ella para poder sacarlo sin buscarlo. Su cerrojo no se toma nunca con
+    // otro dentro, asi que no depende del orden de los de la biblioteca.
+    private final Ejemplar[] disponibles;
+    private volatile int totalDisponibles;
+    private final Object cerrojoDisponibles = new Object();
+    private volatile Biblioteca biblioteca;
+    // Orden de alta en la biblioteca; se publica con el propio libro.
+    private long ordenAlta;
+    private final ColaReservas reservas = new ColaReservas();
+    private String tituloNormalizado;
+    private String autoresNormalizados;
 
     public Libro(String isbn, String titulo, int anio, Categoria categoria, Autor[] autoresIniciales) {
-        this.isbn = validarIsbn(isbn);
+        this.isbn = Isbn.analizar(isbn);
+        this.isbnFormateado = Isbn.formatear(this.isbn);
         setTitulo(titulo);
         setAnio(anio);
         setCategoria(categoria);
         this.autores = new Autor[MAX_AUTORES];
         this.ejemplares = new Ejemplar[MAX_EJEMPLARES];
+        this.disponibles = new Ejemplar[MAX_EJEMPLARES];
         if (autoresIniciales == null || autoresIniciales.length == 0 || autoresIniciales.length > MAX_AUTORES) {
             throw new IllegalArgumentException("Debe proporcionar entre 1 y 3 autores");
         }
@@ -35,17 +50,27 @@ public class Libro implements Comparable<Libro> {
         }
     }
 
-    private String validarIsbn(String valor) {
-        if (valor == null || !valor.trim().matches("\\d{13}")) {
-            throw new IllegalArgumentException("El ISBN debe tener exactamente 13 digitos");
-        }
-        return valor.trim();
-    }
-
     public void addAutor(Autor autor) {
         if (autor == null) {
             throw new IllegalArgumentException("El autor no puede ser nulo");
         }
+        // Como en agregarEjemplar, se decide con el monitor tomado.
+        while (true) {
+            Biblioteca actual;
+            synchronized (this) {
+                actual = biblioteca;
+                if (actual == null) {
+                    guardarAutor(autor);
+                    return;
+                }
+            }
+            if (actual.agregarAutor(this, autor, () -> guardarAutor(autor))) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void guardarAutor(Autor autor) {
         if (totalAutores >= MAX_AUTORES) {
             throw new IllegalArgumentException("No se pueden agregar mas de " + MAX_AUTORES + " autores");
         }
@@ -55,12 +80,31 @@ public class Libro implements Comparable<Libro> {
             }
         }
         autores[totalAutores++] = autor;
+        autoresNormalizados = null;
     }
 
     public boolean removeAutor(Autor autor) {
         if (autor == null) {
             return false;
         }
+        // Igual que addAutor: con el libro dado de alta, el cambio se hace
+        // bajo el cerrojo del catalogo para no cruzarse con el indice.
+        boolean[] quitado = new boolean[1];
+        while (true) {
+            Biblioteca actual;
+            synchronized (this) {
+                actual = biblioteca;
+                if (actual == null) {
+                    return borrarAutor(autor);
+                }
+            }
+            if (actual.quitarAutor(this, autor, () -> quitado[0] = borrarAutor(autor))) {
+                return quitado[0];
+            }
+        }
+    }
+
+    private synchronized boolean borrarAutor(Autor autor) {
         for (int i = 0; i < totalAutores; i++) {
             if (autores[i].equals(autor)) {
                 int elementosAMover = totalAutores - i - 1;
@@ -68,12 +112,47 @@ public class Libro implements Comparable<Libro> {
                     System.arraycopy(autores, i + 1, autores, i, elementosAMover);
                 }
                 autores[--totalAutores] = null;
+                autoresNormalizados = null;
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Deja al libro con esos autores. Lo usa el diario al reproducir un
+     * cambio, que guarda la lista completa.
+     */
+    void reproducirAutores(Autor[] nuevos) {
+        Autor[] actuales = getAutores();
+        if (Arrays.equals(actuales, nuevos)) {
+            return;
+        }
+        for (Autor autor : actuales) {
+            removeAutor(autor);
+        }
+        for (Autor autor : nuevos) {
+            addAutor(autor);
+        }
+    }
+
+    /**
+     * Cambia cada autor por la instancia que guarda el registro del catalogo.
+     */
+    void sustituirAutores(RegistroAutores registro) {
+        boolean cambiados = false;
+        for (int i = 0; i < totalAutores; i++) {
+            Autor canonico = registro.canonico(autores[i]);
+            if (canonico != autores[i]) {
+                autores[i] = canonico;
+                cambiados = true;
+            }
+        }
+        if (cambiados) {
+            autoresNormalizados = null;
+        }
+    }
+
     public String autoresComoCadena() {
         if (totalAutores == 0) {
             return "";
@@ -99,12 +178,33 @@ public class Libro implements Comparable<Libro> {
         if (palabra == null || palabra.trim().isEmpty()) {
             return false;
         }
-        String buscada = normalizarBusqueda(palabra);
-        String[] palabras = normalizarBusqueda(titulo).split("\\s+");
-        for (String palabraTitulo : palabras) {
-            if (palabraTitulo.equals(buscada)) {
+        return tituloTienePalabra(Textos.normalizar(palabra));
+    }
+
+    /**
+     * Indica si la palabra, ya normalizada, aparece como palabra completa del
+     * titulo normalizado. Recorre las apariciones sin partir el titulo.
+     */
+    boolean tituloTienePalabra(String palabraNormalizada) {
+        int longitud = palabraNormalizada.length();
+        if (longitud == 0) {
+            return false;
+        }
+        for (int i = 0; i < longitud; i++) {
+            if (Character.isWhitespace(palabraNormalizada.charAt(i))) {
+                return false;
+            }
+        }
+        String tituloBusqueda = getTituloNormalizado();
+        int desde = tituloBusqueda.indexOf(palabraNormalizada);
+        while (desde != -1) {
+            int fin = desde + longitud;
+            boolean inicioPalabra = desde == 0 || Character.isWhitespace(tituloBusqueda.charAt(desde - 1));
+            boolean finPalabra = fin == tituloBusqueda.length() || Character.isWhitespace(tituloBusqueda.charAt(fin));
+            if (inicioPalabra && finPalabra) {
                 return true;
             }
+            desde = tituloBusqueda.indexOf(palabraNormalizada, desde + 1);
         }
         return false;
     }
@@ -113,11 +213,35 @@ public class Libro implements Comparable<Libro> {
         if (texto == null || texto.trim().isEmpty()) {
             return false;
         }
-        String patron = normalizarBusqueda(texto);
-        String tituloNormalizado = normalizarBusqueda(titulo);
-        String autoresNormalizados = normalizarBusqueda(autoresComoCadena());
-        return tituloNormalizado.contains(patron)
-            || (!autoresNormalizados.isEmpty() && autoresNormalizados.contains(patron));
+        return coincideCon(Textos.normalizar(texto));
+    }
+
+    /**
+     * Igual que {@link #matches(String)} pero con el patron ya normalizado, para
+     * que una busqueda sobre todo el catalogo lo normalice una sola vez.
+     */
+    boolean coincideCon(String patronNormalizado) {
+        String autoresBusqueda = getAutoresNormalizados();
+        return getTituloNormalizado().contains(patronNormalizado)
+            || (!autoresBusqueda.isEmpty() && autoresBusqueda.contains(patronNormalizado));
+    }
+
+    String getTituloNormalizado() {
+        String valor = tituloNormalizado;
+        if (valor == null) {
+            valor = Textos.normalizar(titulo);
+            tituloNormalizado = valor;
+        }
+        return valor;
+    }
+
+    String getAutoresNormalizados() {
+        String valor = autoresNormalizados;
+        if (valor == null) {
+            valor = Textos.normalizar(autoresComoCadena());
+            autoresNormalizados = valor;
+        }
+        return valor;
     }
 
     public void agregarEjemplar(Ejemplar ejemplar) {
@@ -127,24 +251,97 @@ public class Libro implements Comparable<Libro> {
         if (ejemplar.getLibro() != this) {
             throw new IllegalArgumentException("El ejemplar debe pertenecer a este libro");
         }
+        while (true) {
+            Biblioteca actual;
+            // El alta del libro lo publica con este monitor tomado, asi que
+            // un libro sin biblioteca no puede registrarse a la vez.
+            synchronized (this) {
+                actual = biblioteca;
+                if (actual == null) {
+                    guardarEjemplar(ejemplar);
+                    return;
+                }
+            }
+            // La biblioteca lo guarda con su cerrojo tomado para que una
+            // instantanea vea a la vez el codigo registrado y el ejemplar. Si
+            // entre tanto se ha dado de baja el libro, se vuelve a decidir.
+            if (actual.registrarEjemplar(ejemplar, () -> guardarEjemplar(ejemplar))) {
+                return;
+            }
+        }
+    }
+
+    private synchronized void guardarEjemplar(Ejemplar ejemplar) {
         if (totalEjemplares >= MAX_EJEMPLARES) {
             throw new IllegalArgumentException("No se pueden registrar mas ejemplares para este libro");
         }
-        ejemplares[totalEjemplares++] = ejemplar;
+        ejemplares[totalEjemplares] = ejemplar;
+        totalEjemplares = totalEjemplares + 1;
+        if (ejemplar.getEstado() == EstadoLibro.DISPONIBLE) {
+            ejemplarDevuelto(ejemplar);
+        }
     }
 
     public boolean tieneEjemplares() {
         return totalEjemplares > 0;
     }
 
+    public int getTotalDisponibles() {
+        return totalDisponibles;
+    }
+
+    public int getTotalPrestados() {
+        return Math.max(0, totalEjemplares - totalDisponibles);
+    }
+
+    public boolean hayEjemplaresDisponibles() {
+        return totalDisponibles > 0;
+    }
+
+    /**
+     * Cualquiera de los ejemplares disponibles, o {@code null} si estan todos
+     * prestados.
+     */
     public Ejemplar obtenerEjemplarDisponible() {
-        for (int i = 0; i < totalEjemplares; i++) {
-            Ejemplar ejemplar = ejemplares[i];
-            if (ejemplar.getEstado() == EstadoLibro.DISPONIBLE) {
-                return ejemplar;
+        synchronized (cerrojoDisponibles) {
+            return totalDisponibles == 0 ? null : disponibles[totalDisponibles - 1];
+        }
+    }
+
+    /**
+     * Saca el ejemplar de los disponibles. Lo llama el ejemplar al prestarse.
+     */
+    void ejemplarPrestado(Ejemplar ejemplar) {
+        synchronized (cerrojoDisponibles) {
+            int posicion = ejemplar.getPosicionDisponible();
+            if (posicion < 0) {
+                return;
             }
+            // El ultimo de la pila ocupa el hueco que deja.
+            int ultima = totalDisponibles - 1;
+            Ejemplar ultimo = disponibles[ultima];
+            disponibles[posicion] = ultimo;
+            ultimo.setPosicionDisponible(posicion);
+            disponibles[ultima] = null;
+            ejemplar.setPosicionDisponible(-1);
+            totalDisponibles = ultima;
+        }
+    }
+
+    /**
+     * Vuelve a poner el ejemplar entre los disponibles. Lo llama el ejemplar
+     * al devolverse.
+     */
+    void ejemplarDevuelto(Ejemplar ejemplar) {
+        synchronized (cerrojoDisponibles) {
+            if (ejemplar.getPosicionDisponible() >= 0) {
+                return;
+            }
+            int posicion = totalDisponibles;
+            disponibles[posicion] = ejemplar;
+            ejemplar.setPosicionDisponible(posicion);
+            totalDisponibles = posicion + 1;
         }
-        return null;
     }
 
     public Ejemplar buscarEjemplarPorCodigo(String codigo) {
@@ -160,7 +357,27 @@ public class Libro implements Comparable<Libro> {
         return null;
     }
 
+    Biblioteca getBiblioteca() {
+        return biblioteca;
+    }
+
+    void setBiblioteca(Biblioteca biblioteca) {
+        this.biblioteca = biblioteca;
+    }
+
+    long getOrdenAlta() {
+        return ordenAlta;
+    }
+
+    void setOrdenAlta(long ordenAlta) {
+        this.ordenAlta = ordenAlta;
+    }
+
     public String getIsbn() {
+        return isbnFormateado;
+    }
+
+    long getIsbnNumerico() {
         return isbn;
     }
 
@@ -172,7 +389,11 @@ public class Libro implements Comparable<Libro> {
         if (titulo == null || titulo.trim().length() < 3) {
             throw new IllegalArgumentException("El titulo debe tener al menos 3 caracteres");
         }
-        this.titulo = titulo.trim();
+        String limpio = titulo.trim();
+        modificar(() -> {
+            this.titulo = limpio;
+            this.tituloNormalizado = null;
+        });
     }
 
     public int getAnio() {
@@ -183,7 +404,7 @@ public class Libro implements Comparable<Libro> {
         if (anio <= 0) {
             throw new IllegalArgumentException("El anio debe ser mayor que cero");
         }
-        this.anio = anio;
+        modificar(() -> this.anio = anio);
     }
 
     public Categoria getCategoria() {
@@ -194,7 +415,28 @@ public class Libro implements Comparable<Libro> {
         if (categoria == null) {
             throw new IllegalArgumentException("La categoria es obligatoria");
         }
-        this.categoria = categoria;
+        modificar(() -> this.categoria = categoria);
+    }
+
+    /**
+     * Aplica un cambio en los datos del libro. Si esta dado de alta lo aplica
+     * la biblioteca, que actualiza los indices y lo anota en el diario.
+     */
+    private void modificar(Runnable cambio) {
+        // Como en agregarEjemplar, se decide con el monitor tomado.
+        while (true) {
+            Biblioteca actual;
+            synchronized (this) {
+                actual = biblioteca;
+                if (actual == null) {
+                    cambio.run();
+                    return;
+                }
+            }
+            if (actual.modificarLibro(this, cambio)) {
+                return;
+            }
+        }
     }
 
     public Autor[] getAutores() {
@@ -205,6 +447,17 @@ public class Libro implements Comparable<Libro> {
         return Arrays.copyOf(ejemplares, totalEjemplares);
     }
 
+    /**
+     * Usuarios que esperan un ejemplar de este libro.
+     */
+    public int getTotalReservas() {
+        return reservas.tamanio();
+    }
+
+    ColaReservas getReservas() {
+        return reservas;
+    }
+
     public boolean esAntiguo() {
         return anio <= LocalDate.now().getYear() - 50;
     }
@@ -224,12 +477,6 @@ public class Libro implements Comparable<Libro> {
         return titulo.trim().split("\\s+");
     }
 
-    private String normalizarBusqueda(String texto) {
-        String normalized = Normalizer.normalize(texto, Normalizer.Form.NFD)
-                .replaceAll("\\p{M}", "");
-        return normalized.toLowerCase().trim();
-    }
-
     @Override
     public int compareTo(Libro otro) {
         int cmp = String.CASE_INSENSITIVE_ORDER.compare(this.titulo, otro.titulo);
@@ -247,16 +494,16 @@ public class Libro implements Comparable<Libro> {
         if (!(obj instanceof Libro other)) {
             return false;
         }
-        return isbn.equals(other.isbn);
+        return isbn == other.isbn;
     }
 
     @Override
     public int hashCode() {
-        return isbn.hashCode();
+        return Long.hashCode(isbn);
     }
 
     @Override
     public String toString() {
-        return isbn + "|" + titulo + "|" + anio + "|" + categoria + "|[" + autoresComoCadena() + "]";
+        return getIsbn() + "|" + titulo + "|" + anio + "|" + categoria + "|[" + autoresComoCadena() + "]";
     }
 }
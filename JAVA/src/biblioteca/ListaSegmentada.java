@@ -0,0 +1,193 @@
+package biblioteca;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Lista que guarda sus elementos en bloques de tamanio fijo. Crece reservando
+ * bloques nuevos segun se necesitan, sin copiar los elementos ya guardados y
+ * sin limite maximo de elementos.
+ *
+ * <p>Los borrados dejan un hueco en la posicion del elemento, de modo que
+ * eliminar cuesta O(1) y el resto conserva su orden de insercion. Cuando los
+ * huecos superan a los elementos vivos la lista se compacta en una pasada.
+ *
+ * <p>Admite un unico hilo escritor a la vez (quien la usa debe serializar las
+ * modificaciones) y cualquier numero de lectores sin bloqueo: cada recorrido
+ * trabaja sobre los bloques publicados al empezar y la compactacion copia los
+ * elementos a bloques nuevos en lugar de moverlos dentro de los que se leen.
+ */
+final class ListaSegmentada<T> implements Iterable<T> {
+    private static final int MIN_TAMANIO_BLOQUE = 16;
+    private static final int MAX_TAMANIO_BLOQUE = 1 << 14;
+
+    private final int bitsBloque;
+    private final int mascaraBloque;
+    private final Map<T, Integer> posiciones;
+    private volatile Object[][] bloques;
+    private volatile int ocupadas;
+    private volatile int vivos;
+
+    ListaSegmentada(int capacidadInicial) {
+        this(capacidadInicial, false);
+    }
+
+    /**
+     * @param borrable si es {@code true} la lista recuerda la posicion de cada
+     *                 elemento para poder eliminarlo en O(1) con {@link #eliminar(Object)}
+     */
+    ListaSegmentada(int capacidadInicial, boolean borrable) {
+        if (capacidadInicial <= 0) {
+            throw new IllegalArgumentException("La capacidad inicial debe ser mayor que cero");
+        }
+        int tamanioBloque = Math.max(MIN_TAMANIO_BLOQUE,
+                Math.min(MAX_TAMANIO_BLOQUE, Integer.highestOneBit(capacidadInicial - 1) << 1));
+        this.bitsBloque = Integer.numberOfTrailingZeros(tamanioBloque);
+        this.mascaraBloque = tamanioBloque - 1;
+        this.posiciones = borrable ? new IdentityHashMap<>() : null;
+        this.bloques = new Object[4][];
+    }
+
+    int tamanio() {
+        return vivos;
+    }
+
+    boolean estaVacia() {
+        return vivos == 0;
+    }
+
+    void agregar(T elemento) {
+        if (elemento == null) {
+            throw new IllegalArgumentException("No se pueden guardar elementos nulos");
+        }
+        int posicion = ocupadas;
+        int bloque = posicion >>> bitsBloque;
+        Object[][] actuales = bloques;
+        if (bloque == actuales.length || actuales[bloque] == null) {
+            Object[][] nuevos = bloque == actuales.length ? Arrays.copyOf(actuales, actuales.length * 2) : actuales;
+            nuevos[bloque] = new Object[mascaraBloque + 1];
+            bloques = nuevos;
+            actuales = nuevos;
+        }
+        actuales[bloque][posicion & mascaraBloque] = elemento;
+        if (posiciones != null) {
+            posiciones.put(elemento, posicion);
+        }
+        // La escritura volatil publica el elemento a los lectores.
+        ocupadas = posicion + 1;
+        vivos = vivos + 1;
+    }
+
+    boolean eliminar(T elemento) {
+        if (posiciones == null) {
+            throw new UnsupportedOperationException("La lista no admite borrados");
+        }
+        Integer posicion = posiciones.remove(elemento);
+        if (posicion == null) {
+            return false;
+        }
+        bloques[posicion >>> bitsBloque][posicion & mascaraBloque] = null;
+        int restantes = vivos - 1;
+        vivos = restantes;
+        int huecos = ocupadas - restantes;
+        if (huecos > restantes && huecos >= MIN_TAMANIO_BLOQUE) {
+            compactar(null);
+        }
+        return true;
+    }
+
+    /**
+     * Elimina en una sola pasada todos los elementos que cumplen el criterio y
+     * devuelve cuantos se han eliminado.
+     */
+    int eliminarSi(Predicate<? super T> criterio) {
+        if (posiciones == null) {
+            throw new UnsupportedOperationException("La lista no admite borrados");
+        }
+        int antes = vivos;
+        compactar(criterio);
+        return antes - vivos;
+    }
+
+    /**
+     * Copia los elementos vivos, en orden, a bloques nuevos, descartando ademas
+     * los que cumplan el criterio si se indica uno.
+     */
+    @SuppressWarnings("unchecked")
+    private void compactar(Predicate<? super T> descartar) {
+        Object[][] origen = bloques;
+        int limite = ocupadas;
+        int tamanioBloque = mascaraBloque + 1;
+        Object[][] destino = new Object[Math.max(4, (vivos >>> bitsBloque) + 2)][];
+        int escritos = 0;
+        for (int i = 0; i < limite; i++) {
+            T elemento = (T) origen[i >>> bitsBloque][i & mascaraBloque];
+            if (elemento == null) {
+                continue;
+            }
+            if (descartar != null && descartar.test(elemento)) {
+                posiciones.remove(elemento);
+                continue;
+            }
+            int bloque = escritos >>> bitsBloque;
+            if (destino[bloque] == null) {
+                destino[bloque] = new Object[tamanioBloque];
+            }
+            destino[bloque][escritos & mascaraBloque] = elemento;
+            posiciones.put(elemento, escritos);
+            escritos++;
+        }
+        bloques = destino;
+        ocupadas = escritos;
+        vivos = escritos;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        // Se lee primero el numero de posiciones y despues los bloques: asi
+        // los bloques son al menos tan recientes como el limite leido.
+        int limite = ocupadas;
+        Object[][] vista = bloques;
+        return new Iterator<>() {
+            private int siguiente;
+            private T proximo = avanzar();
+
+            @SuppressWarnings("unchecked")
+            private T avanzar() {
+                while (siguiente < limite) {
+                    int bloque = siguiente >>> bitsBloque;
+                    if (bloque >= vista.length || vista[bloque] == null) {
+                        // La lista se compacto despues de leer el limite.
+                        break;
+                    }
+                    T elemento = (T) vista[bloque][siguiente & mascaraBloque];
+                    siguiente++;
+                    if (elemento != null) {
+                        return elemento;
+                    }
+                }
+                siguiente = limite;
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return proximo != null;
+            }
+
+            @Override
+            public T next() {
+                if (proximo == null) {
+                    throw new NoSuchElementException();
+                }
+                T elemento = proximo;
+                proximo = avanzar();
+                return elemento;
+            }
+        };
+    }
+}
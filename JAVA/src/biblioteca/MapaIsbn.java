@@ -0,0 +1,141 @@
+package biblioteca;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Libros del catalogo por su ISBN numerico, en una tabla de direccionamiento
+ * abierto con las claves como {@code long} sin envolver.
+ *
+ * <p>Las modificaciones deben llegar de una en una; las consultas pueden
+ * hacerse a la vez y no bloquean. Por eso al quitar un libro su clave se
+ * queda en la tabla sin valor, de modo que ninguna consulta en curso pierda
+ * las claves que venian detras, y esas posiciones se limpian cuando la tabla
+ * se reconstruye al crecer.
+ */
+final class MapaIsbn {
+    private static final long VACIA = -1;
+    private static final int CAPACIDAD_MINIMA = 16;
+
+    private static final class Tabla {
+        final AtomicLongArray claves;
+        final AtomicReferenceArray<Libro> libros;
+        final int mascara;
+
+        Tabla(int capacidad) {
+            this.claves = new AtomicLongArray(capacidad);
+            this.libros = new AtomicReferenceArray<>(capacidad);
+            this.mascara = capacidad - 1;
+            for (int i = 0; i < capacidad; i++) {
+                claves.set(i, VACIA);
+            }
+        }
+
+        int posicion(long isbn) {
+            int i = mezclar(isbn) & mascara;
+            while (true) {
+                long clave = claves.get(i);
+                if (clave == isbn || clave == VACIA) {
+                    return i;
+                }
+                i = (i + 1) & mascara;
+            }
+        }
+    }
+
+    private volatile Tabla tabla;
+    private volatile int tamanio;
+    // Posiciones con clave, con libro o sin el.
+    private int ocupadas;
+
+    MapaIsbn(int capacidadInicial) {
+        int capacidad = CAPACIDAD_MINIMA;
+        while (capacidad < capacidadInicial * 2) {
+            capacidad <<= 1;
+        }
+        this.tabla = new Tabla(capacidad);
+    }
+
+    Libro obtener(long isbn) {
+        if (isbn < 0) {
+            return null;
+        }
+        Tabla actual = tabla;
+        return actual.libros.get(actual.posicion(isbn));
+    }
+
+    boolean contiene(long isbn) {
+        return obtener(isbn) != null;
+    }
+
+    /**
+     * Guarda el libro con su ISBN, sustituyendo al que hubiera.
+     */
+    void poner(Libro libro) {
+        long isbn = libro.getIsbnNumerico();
+        Tabla actual = tabla;
+        int i = actual.posicion(isbn);
+        if (actual.claves.get(i) == VACIA) {
+            if ((ocupadas + 1) * 2 > actual.claves.length()) {
+                actual = reconstruir(actual);
+                i = actual.posicion(isbn);
+            }
+            ocupadas++;
+            // El libro antes que la clave: quien vea la clave ve el libro.
+            actual.libros.set(i, libro);
+            actual.claves.set(i, isbn);
+            tamanio++;
+            return;
+        }
+        if (actual.libros.getAndSet(i, libro) == null) {
+            tamanio++;
+        }
+    }
+
+    boolean quitar(long isbn) {
+        if (isbn < 0) {
+            return false;
+        }
+        Tabla actual = tabla;
+        int i = actual.posicion(isbn);
+        if (actual.claves.get(i) == VACIA || actual.libros.getAndSet(i, null) == null) {
+            return false;
+        }
+        tamanio--;
+        return true;
+    }
+
+    int tamanio() {
+        return tamanio;
+    }
+
+    /**
+     * Copia los libros a una tabla nueva, sin las claves quitadas y llena como
+     * mucho en una cuarta parte, y la publica.
+     */
+    private Tabla reconstruir(Tabla anterior) {
+        int capacidad = CAPACIDAD_MINIMA;
+        while (capacidad < (tamanio + 1) * 4) {
+            capacidad <<= 1;
+        }
+        Tabla nueva = new Tabla(capacidad);
+        int copiadas = 0;
+        for (int i = 0; i < anterior.claves.length(); i++) {
+            Libro libro = anterior.libros.get(i);
+            if (libro != null) {
+                int j = nueva.posicion(libro.getIsbnNumerico());
+                nueva.libros.set(j, libro);
+                nueva.claves.set(j, libro.getIsbnNumerico());
+                copiadas++;
+            }
+        }
+        ocupadas = copiadas;
+        tabla = nueva;
+        return nueva;
+    }
+
+    private static int mezclar(long isbn) {
+        long h = isbn * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
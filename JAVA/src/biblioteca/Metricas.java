@@ -0,0 +1,235 @@
+package biblioteca;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Cuantas veces se ha hecho cada operacion de circulacion y busqueda, cuantas
+ * han fallado y cuanto han tardado, mas el tamanio actual del catalogo y los
+ * prestamos activos y vencidos de la biblioteca.
+ *
+ * <p>Una operacion falla cuando lanza una excepcion. Devolver un ejemplar que
+ * no estaba prestado, o buscar sin encontrar nada, no es un fallo.
+ *
+ * <p>Se obtienen con {@link Biblioteca#activarMetricas()}. Medir una
+ * operacion no crea objetos ni bloquea, y con las metricas desactivadas la
+ * biblioteca ni siquiera lee el reloj. Se consultan desde codigo, como texto
+ * con {@link #volcar(Appendable)} o por JMX con {@link #publicarEnJmx()}.
+ */
+public final class Metricas implements MetricasMXBean {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    /**
+     * Operaciones que se miden.
+     */
+    public enum Operacion {
+        PRESTAR,
+        DEVOLVER,
+        BUSCAR_LIBROS,
+        BUSCAR_USUARIOS
+    }
+
+    private final Biblioteca biblioteca;
+    private final HistogramaLatencias[] latencias;
+    private final LongAdder[] fallos;
+    private ObjectName nombreJmx;
+
+    Metricas(Biblioteca biblioteca) {
+        this.biblioteca = biblioteca;
+        Operacion[] operaciones = Operacion.values();
+        this.latencias = new HistogramaLatencias[operaciones.length];
+        this.fallos = new LongAdder[operaciones.length];
+        for (int i = 0; i < operaciones.length; i++) {
+            latencias[i] = new HistogramaLatencias();
+            fallos[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Anota una operacion que empezo en el instante {@code inicio} de
+     * {@link System#nanoTime()} y acaba ahora.
+     */
+    void registrar(Operacion operacion, long inicio, boolean correcta) {
+        latencias[operacion.ordinal()].registrar(System.nanoTime() - inicio);
+        if (!correcta) {
+            fallos[operacion.ordinal()].increment();
+        }
+    }
+
+    public long getOperaciones(Operacion operacion) {
+        return latencias[operacion.ordinal()].total();
+    }
+
+    public long getFallos(Operacion operacion) {
+        return fallos[operacion.ordinal()].sum();
+    }
+
+    /**
+     * Duracion en nanosegundos que no supera el porcentaje indicado de las
+     * operaciones, con un error menor del 7 %.
+     */
+    public long getPercentil(Operacion operacion, double porcentaje) {
+        return latencias[operacion.ordinal()].percentil(porcentaje);
+    }
+
+    public long getMaximo(Operacion operacion) {
+        return latencias[operacion.ordinal()].maximo();
+    }
+
+    @Override
+    public int getTotalLibros() {
+        return biblioteca.getTotalLibros();
+    }
+
+    @Override
+    public int getTotalEjemplares() {
+        return biblioteca.getTotalEjemplares();
+    }
+
+    @Override
+    public int getTotalUsuarios() {
+        return biblioteca.getTotalUsuarios();
+    }
+
+    @Override
+    public int getPrestamosActivos() {
+        return biblioteca.getTotalPrestamosActivos();
+    }
+
+    /**
+     * Prestamos activos que hoy ya han pasado su fecha limite.
+     */
+    @Override
+    public int getPrestamosVencidos() {
+        return biblioteca.getTotalPrestamosVencidos();
+    }
+
+    @Override
+    public Map<String, Long> getOperaciones() {
+        Map<String, Long> resultado = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            resultado.put(operacion.name(), getOperaciones(operacion));
+        }
+        return resultado;
+    }
+
+    @Override
+    public Map<String, Long> getFallos() {
+        Map<String, Long> resultado = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            resultado.put(operacion.name(), getFallos(operacion));
+        }
+        return resultado;
+    }
+
+    @Override
+    public Map<String, Long> getLatenciasMicros() {
+        Map<String, Long> resultado = new LinkedHashMap<>();
+        for (Operacion operacion : Operacion.values()) {
+            HistogramaLatencias histograma = latencias[operacion.ordinal()];
+            for (double percentil : PERCENTILES) {
+                resultado.put(operacion.name() + "." + nombrePercentil(percentil),
+                        TimeUnit.NANOSECONDS.toMicros(histograma.percentil(percentil)));
+            }
+            resultado.put(operacion.name() + ".max", TimeUnit.NANOSECONDS.toMicros(histograma.maximo()));
+        }
+        return resultado;
+    }
+
+    @Override
+    public String getResumen() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            volcar(sb);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public void reiniciar() {
+        for (int i = 0; i < latencias.length; i++) {
+            latencias[i].reiniciar();
+            fallos[i].reset();
+        }
+    }
+
+    /**
+     * Escribe una linea por operacion con el total, los fallos y las
+     * latencias en microsegundos, y despues los indicadores de la biblioteca.
+     */
+    public void volcar(Appendable destino) throws IOException {
+        destino.append(String.format(Locale.ROOT, "%-16s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operacion", "total", "fallos", "p50(us)", "p90(us)", "p99(us)", "p99.9(us)", "max(us)"));
+        for (Operacion operacion : Operacion.values()) {
+            HistogramaLatencias histograma = latencias[operacion.ordinal()];
+            destino.append(String.format(Locale.ROOT, "%-16s %10d %8d",
+                    operacion.name(), getOperaciones(operacion), getFallos(operacion)));
+            for (double percentil : PERCENTILES) {
+                destino.append(String.format(Locale.ROOT, " %10d",
+                        TimeUnit.NANOSECONDS.toMicros(histograma.percentil(percentil))));
+            }
+            destino.append(String.format(Locale.ROOT, " %10d%n",
+                    TimeUnit.NANOSECONDS.toMicros(histograma.maximo())));
+        }
+        destino.append(String.format(Locale.ROOT,
+                "libros=%d ejemplares=%d usuarios=%d prestamosActivos=%d prestamosVencidos=%d%n",
+                getTotalLibros(), getTotalEjemplares(), getTotalUsuarios(),
+                getPrestamosActivos(), getPrestamosVencidos()));
+    }
+
+    /**
+     * Publica las metricas en el servidor JMX de la plataforma con el nombre
+     * {@code biblioteca:type=Metricas,name=<nombre de la biblioteca>}.
+     */
+    public synchronized ObjectName publicarEnJmx() {
+        if (nombreJmx != null) {
+            return nombreJmx;
+        }
+        try {
+            ObjectName nombre = new ObjectName("biblioteca:type=Metricas,name="
+                    + ObjectName.quote(biblioteca.getNombre()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, nombre);
+            nombreJmx = nombre;
+            return nombre;
+        } catch (JMException e) {
+            throw new IllegalStateException("No se pudieron publicar las metricas por JMX", e);
+        }
+    }
+
+    public synchronized void retirarDeJmx() {
+        if (nombreJmx == null) {
+            return;
+        }
+        MBeanServer servidor = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (servidor.isRegistered(nombreJmx)) {
+                servidor.unregisterMBean(nombreJmx);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("No se pudieron retirar las metricas de JMX", e);
+        } finally {
+            nombreJmx = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getResumen();
+    }
+
+    private static String nombrePercentil(double percentil) {
+        return percentil == Math.rint(percentil)
+                ? "p" + (long) percentil
+                : "p" + percentil;
+    }
+}
@@ -0,0 +1,29 @@
+package biblioteca;
+
+import java.util.Map;
+
+/**
+ * Vista JMX de las {@link Metricas} de una biblioteca. Las latencias se dan
+ * en microsegundos con claves como {@code PRESTAR.p99}.
+ */
+public interface MetricasMXBean {
+    int getTotalLibros();
+
+    int getTotalEjemplares();
+
+    int getTotalUsuarios();
+
+    int getPrestamosActivos();
+
+    int getPrestamosVencidos();
+
+    Map<String, Long> getOperaciones();
+
+    Map<String, Long> getFallos();
+
+    Map<String, Long> getLatenciasMicros();
+
+    String getResumen();
+
+    void reiniciar();
+}
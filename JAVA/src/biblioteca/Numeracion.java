@@ -0,0 +1,53 @@
+package biblioteca;
+
+import java.util.Arrays;
+
+/**
+ * Asigna numeros consecutivos a los ejemplares y usuarios de una biblioteca
+ * para poder referirse a ellos con un {@code int}, como hace el
+ * {@link ArchivoPrestamos}, y recuperarlos despues a partir del numero.
+ *
+ * <p>Los numeros no se reutilizan: un usuario dado de baja conserva el suyo
+ * porque su historial sigue en el archivo. Admite un unico hilo escritor y
+ * lectores sin bloqueo.
+ */
+final class Numeracion<T> {
+    private volatile Object[] elementos;
+    private volatile int total;
+
+    Numeracion(int capacidadInicial) {
+        this.elementos = new Object[Math.max(16, capacidadInicial)];
+    }
+
+    int asignar(T elemento) {
+        int numero = total;
+        Object[] actuales = elementos;
+        if (numero == actuales.length) {
+            actuales = Arrays.copyOf(actuales, numero * 2);
+            elementos = actuales;
+        }
+        actuales[numero] = elemento;
+        total = numero + 1;
+        return numero;
+    }
+
+    @SuppressWarnings("unchecked")
+    T obtener(int numero) {
+        // Se lee primero el total para ver al menos los elementos que cubre.
+        if (numero < 0 || numero >= total) {
+            return null;
+        }
+        return (T) elementos[numero];
+    }
+
+    int tamanio() {
+        return total;
+    }
+
+    /**
+     * Indica si el numero ya asignado al elemento es de esta numeracion.
+     */
+    boolean contiene(int numero, T elemento) {
+        return obtener(numero) == elemento;
+    }
+}
@@ -0,0 +1,38 @@
+package biblioteca;
+
+import java.util.List;
+
+/**
+ * Una pagina de resultados de busqueda ordenados por relevancia.
+ */
+public final class PaginaResultados<T> {
+    private final List<T> elementos;
+    private final int desde;
+    private final int total;
+
+    PaginaResultados(List<T> elementos, int desde, int total) {
+        this.elementos = elementos;
+        this.desde = desde;
+        this.total = total;
+    }
+
+    public List<T> getElementos() {
+        return elementos;
+    }
+
+    public int getDesde() {
+        return desde;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public boolean hayMas() {
+        return desde + elementos.size() < total;
+    }
+
+    public int siguienteDesde() {
+        return desde + elementos.size();
+    }
+}
@@ -1,37 +1,78 @@
 package biblioteca;
 
 import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 
 /**
  * Prestamo de un ejemplar a un usuario.
+ *
+ * <p>Las fechas se guardan como dias desde 1970-01-01, igual que en el
+ * archivo de prestamos, de modo que comprobar vencimientos y dias de retraso
+ * son restas de enteros. Sin fecha de referencia se usa el dia de hoy segun
+ * el reloj de la biblioteca del usuario; para evaluar muchos prestamos a la
+ * vez conviene tomar ese dia una sola vez y pasarlo a
+ * {@link #estaVencido(LocalDate)} y {@link #diasRetraso(LocalDate)}.
  */
 public class Prestamo {
     private static final int DIAS_PRESTAMO = 21;
+    private static final int SIN_DEVOLVER = Integer.MIN_VALUE;
 
     private final Ejemplar ejemplar;
     private final Usuario usuario;
-    private final LocalDate fechaInicio;
-    private final LocalDate fechaLimite;
-    private boolean devuelto;
-    private LocalDate fechaDevolucion;
+    private final int diaInicio;
+    private final int diaLimite;
+    private int diaDevolucion = SIN_DEVOLVER;
+    // Parte de la multa ya cargada al usuario, en centimos.
+    private long multaCargada;
 
     public Prestamo(Ejemplar ejemplar, Usuario usuario, LocalDate fechaInicio) {
+        this(ejemplar, usuario, diaDe(fechaInicio, "La fecha de inicio es obligatoria"), SIN_DEVOLVER);
+    }
+
+    /**
+     * Con dia de devolucion reconstruye un prestamo ya cerrado, sin tocar el
+     * ejemplar ni los prestamos activos del usuario. Lo usa la consulta del
+     * archivo de prestamos.
+     */
+    Prestamo(Ejemplar ejemplar, Usuario usuario, int diaInicio, int diaDevolucion) {
         if (ejemplar == null) {
             throw new IllegalArgumentException("El ejemplar es obligatorio");
         }
         if (usuario == null) {
             throw new IllegalArgumentException("El usuario es obligatorio");
         }
-        if (fechaInicio == null) {
-            throw new IllegalArgumentException("La fecha de inicio es obligatoria");
-        }
         this.ejemplar = ejemplar;
         this.usuario = usuario;
-        this.fechaInicio = fechaInicio;
-        this.fechaLimite = fechaInicio.plusDays(DIAS_PRESTAMO);
-        this.ejemplar.prestar();
-        this.usuario.agregarPrestamoActivo(this);
+        this.diaInicio = diaInicio;
+        this.diaLimite = diaInicio + DIAS_PRESTAMO;
+        if (diaDevolucion != SIN_DEVOLVER) {
+            if (diaDevolucion < diaInicio) {
+                throw new IllegalArgumentException("La devolucion no puede ser anterior al inicio");
+            }
+            this.diaDevolucion = diaDevolucion;
+            return;
+        }
+        this.ejemplar.prestar(this);
+        try {
+            this.usuario.agregarPrestamoActivo(this);
+        } catch (RuntimeException e) {
+            // El usuario no puede llevarselo: el ejemplar vuelve a estar libre.
+            this.ejemplar.devolver();
+            throw e;
+        }
+    }
+
+    /**
+     * Dias desde 1970-01-01 de la fecha, que debe caber en un {@code int}.
+     */
+    static int diaDe(LocalDate fecha, String mensajeSiFalta) {
+        if (fecha == null) {
+            throw new IllegalArgumentException(mensajeSiFalta);
+        }
+        long dia = fecha.toEpochDay();
+        if (dia < Integer.MIN_VALUE + 1 || dia > Integer.MAX_VALUE - DIAS_PRESTAMO) {
+            throw new IllegalArgumentException("La fecha esta fuera del rango admitido");
+        }
+        return (int) dia;
     }
 
     public Ejemplar getEjemplar() {
@@ -43,51 +84,102 @@ public class Prestamo {
     }
 
     public LocalDate getFechaInicio() {
-        return fechaInicio;
+        return LocalDate.ofEpochDay(diaInicio);
     }
 
     public LocalDate getFechaLimite() {
-        return fechaLimite;
+        return LocalDate.ofEpochDay(diaLimite);
     }
 
     public boolean isDevuelto() {
-        return devuelto;
+        return diaDevolucion != SIN_DEVOLVER;
     }
 
     public LocalDate getFechaDevolucion() {
-        return fechaDevolucion;
+        return isDevuelto() ? LocalDate.ofEpochDay(diaDevolucion) : null;
+    }
+
+    int getDiaInicio() {
+        return diaInicio;
+    }
+
+    int getDiaLimite() {
+        return diaLimite;
+    }
+
+    int getDiaDevolucion() {
+        return diaDevolucion;
+    }
+
+    long getMultaCargada() {
+        return multaCargada;
+    }
+
+    void setMultaCargada(long centimos) {
+        this.multaCargada = centimos;
     }
 
     public int diasRetraso() {
-        LocalDate referencia = devuelto ? fechaDevolucion : LocalDate.now();
-        if (referencia == null || !referencia.isAfter(fechaLimite)) {
-            return 0;
-        }
-        return (int) ChronoUnit.DAYS.between(fechaLimite, referencia);
+        return diasRetraso(hoy());
+    }
+
+    /**
+     * Dias que pasaron de la fecha limite hasta la devolucion o, si sigue
+     * activo, hasta el dia dado.
+     */
+    public int diasRetraso(LocalDate hoy) {
+        return diasRetraso(diaDe(hoy, "La fecha es obligatoria"));
+    }
+
+    int diasRetraso(int hoy) {
+        int referencia = isDevuelto() ? diaDevolucion : hoy;
+        return Math.max(0, referencia - diaLimite);
     }
 
     public boolean estaVencido() {
-        return !devuelto && LocalDate.now().isAfter(fechaLimite);
+        return estaVencido(hoy());
+    }
+
+    /**
+     * Indica si el prestamo seguia sin devolver pasada su fecha limite en el
+     * dia dado.
+     */
+    public boolean estaVencido(LocalDate fecha) {
+        return estaVencido(diaDe(fecha, "La fecha es obligatoria"));
+    }
+
+    boolean estaVencido(int dia) {
+        return !isDevuelto() && dia > diaLimite;
     }
 
     public void marcarDevuelto(LocalDate fecha) {
-        if (fecha == null) {
-            throw new IllegalArgumentException("La fecha de devolucion es obligatoria");
-        }
-        if (fecha.isBefore(fechaInicio)) {
+        int dia = diaDe(fecha, "La fecha de devolucion es obligatoria");
+        if (dia < diaInicio) {
             throw new IllegalArgumentException("La devolucion no puede ser anterior al inicio");
         }
-        if (devuelto) {
+        if (isDevuelto()) {
             throw new IllegalArgumentException("El prestamo ya estaba devuelto");
         }
-        this.devuelto = true;
-        this.fechaDevolucion = fecha;
+        // El archivo lee el dia de devolucion; si falla al archivar, el
+        // prestamo sigue activo sin ningun cambio.
+        this.diaDevolucion = dia;
+        try {
+            usuario.cerrarPrestamoActivo(this);
+        } catch (RuntimeException e) {
+            this.diaDevolucion = SIN_DEVOLVER;
+            throw e;
+        }
         ejemplar.devolver();
-        usuario.cerrarPrestamoActivo(this);
+    }
+
+    private LocalDate hoy() {
+        Biblioteca biblioteca = usuario.getBiblioteca();
+        return biblioteca == null ? LocalDate.now() : biblioteca.hoy();
     }
 
     @Override
     public String toString() {
-        return ejemplar.getCodigo() + "|" + usuario.getId() + "|" + fechaInicio + "|" + fechaLimite + "|" + devuelto;
+        return ejemplar.getCodigo() + "|" + usuario.getId() + "|" + getFechaInicio() + "|" + getFechaLimite()
+                + "|" + isDevuelto();
     }
 }
@@ -0,0 +1,101 @@
+package biblioteca;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Autores del catalogo, con una sola instancia por autor, y los libros de
+ * cada uno.
+ *
+ * <p>Al registrar un libro sus autores se sustituyen por la instancia que ya
+ * tuviera el catalogo, de modo que todos los libros de un autor comparten el
+ * mismo objeto. Un autor sin nacionalidad toma la registrada; uno con otra
+ * nacionalidad distinta se rechaza con {@link #comprobar(Autor)} antes de
+ * registrar el libro. Buscar los libros de un autor es una consulta directa
+ * en vez de una busqueda por texto.
+ *
+ * <p>Como {@link IndiceTexto}, las modificaciones deben llegar de una en una
+ * y las consultas pueden hacerse a la vez sin bloquear.
+ */
+final class RegistroAutores {
+    private final ConcurrentMap<Autor, Autor> canonicos;
+    private final ConcurrentMap<Autor, Set<Libro>> librosPorAutor;
+    private final Map<Libro, Autor[]> autoresIndexados;
+
+    RegistroAutores() {
+        this.canonicos = new ConcurrentHashMap<>();
+        this.librosPorAutor = new ConcurrentHashMap<>();
+        this.autoresIndexados = new IdentityHashMap<>();
+    }
+
+    /**
+     * Instancia del catalogo igual al autor, o el propio autor si es nuevo.
+     */
+    Autor canonico(Autor autor) {
+        Autor existente = canonicos.putIfAbsent(autor, autor);
+        return existente == null ? autor : existente;
+    }
+
+    /**
+     * Instancia del catalogo igual al autor, o {@code null} si no tiene libros.
+     */
+    Autor registrado(Autor autor) {
+        return canonicos.get(autor);
+    }
+
+    /**
+     * Rechaza el autor si ya esta registrado y el nuevo indica una
+     * nacionalidad distinta, que de otro modo se perderia.
+     */
+    void comprobar(Autor autor) {
+        Autor existente = canonicos.get(autor);
+        if (existente != null && !autor.getNacionalidad().isEmpty()
+                && !autor.getNacionalidad().equalsIgnoreCase(existente.getNacionalidad())) {
+            throw new IllegalArgumentException("El autor " + autor.getNombreCompleto()
+                    + " ya esta registrado con otra nacionalidad");
+        }
+    }
+
+    void indexar(Libro libro) {
+        libro.sustituirAutores(this);
+        Autor[] autores = libro.getAutores();
+        autoresIndexados.put(libro, autores);
+        for (Autor autor : autores) {
+            librosPorAutor.computeIfAbsent(autor, k -> ConcurrentHashMap.newKeySet()).add(libro);
+        }
+    }
+
+    void desindexar(Libro libro) {
+        Autor[] autores = autoresIndexados.remove(libro);
+        if (autores == null) {
+            return;
+        }
+        for (Autor autor : autores) {
+            Set<Libro> libros = librosPorAutor.get(autor);
+            if (libros != null) {
+                libros.remove(libro);
+                if (libros.isEmpty()) {
+                    librosPorAutor.remove(autor);
+                    canonicos.remove(autor);
+                }
+            }
+        }
+    }
+
+    void reindexar(Libro libro) {
+        desindexar(libro);
+        indexar(libro);
+    }
+
+    /**
+     * Libros del autor, en ningun orden concreto.
+     */
+    List<Libro> libros(Autor autor) {
+        Set<Libro> libros = librosPorAutor.get(autor);
+        return libros == null ? List.of() : List.copyOf(libros);
+    }
+}
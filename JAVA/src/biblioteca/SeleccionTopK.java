@@ -0,0 +1,61 @@
+package biblioteca;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Conserva los k mejores elementos de una secuencia sin guardarla entera. Cada
+ * elemento llega con una puntuacion; a igual puntuacion decide el comparador
+ * de desempate, donde va antes el menor.
+ */
+final class SeleccionTopK<T> {
+    private final int k;
+    private final Comparator<Candidato<T>> orden;
+    private final PriorityQueue<Candidato<T>> peores;
+    private int totalOfrecidos;
+
+    SeleccionTopK(int k, Comparator<? super T> desempate) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("El numero de resultados debe ser mayor que cero");
+        }
+        this.k = k;
+        Comparator<Candidato<T>> porPuntos = Comparator.comparingInt(Candidato::puntos);
+        this.orden = porPuntos.reversed().thenComparing(Candidato::elemento, desempate);
+        // La cabeza de la cola es el peor de los seleccionados, el primero en salir.
+        this.peores = new PriorityQueue<>(Math.min(k, 1024), orden.reversed());
+    }
+
+    void ofrecer(T elemento, int puntos) {
+        totalOfrecidos++;
+        Candidato<T> candidato = new Candidato<>(elemento, puntos);
+        if (peores.size() < k) {
+            peores.add(candidato);
+        } else if (orden.compare(candidato, peores.peek()) < 0) {
+            peores.poll();
+            peores.add(candidato);
+        }
+    }
+
+    int getTotalOfrecidos() {
+        return totalOfrecidos;
+    }
+
+    /**
+     * Los elementos seleccionados, del mejor al peor.
+     */
+    List<T> mejores() {
+        List<Candidato<T>> ordenados = new ArrayList<>(peores);
+        ordenados.sort(orden);
+        List<T> resultado = new ArrayList<>(ordenados.size());
+        for (Candidato<T> candidato : ordenados) {
+            resultado.add(candidato.elemento());
+        }
+        return Collections.unmodifiableList(resultado);
+    }
+
+    private record Candidato<T>(T elemento, int puntos) {
+    }
+}
@@ -0,0 +1,98 @@
+package biblioteca;
+
+import java.util.Arrays;
+
+/**
+ * Importe de las multas por retraso, en centimos: una cantidad por cada dia
+ * de retraso que depende de la categoria del libro, hasta un tope por
+ * prestamo. Es inmutable; {@link #conCategoria(Categoria, long)} devuelve una
+ * copia con otra cantidad para una categoria.
+ *
+ * <p>La biblioteca anota cada cambio de tarifa en su {@link Diario} y la
+ * guarda en sus instantaneas, porque los saldos de multas dependen de ella.
+ */
+public final class TarifaMultas {
+    /**
+     * Tarifa por defecto de la biblioteca: no cobra nada.
+     */
+    public static final TarifaMultas SIN_MULTAS = new TarifaMultas(0, 0);
+
+    /**
+     * Tope que indica que la multa de un prestamo no tiene limite.
+     */
+    public static final long SIN_TOPE = 0;
+
+    private final long[] centimosPorDia;
+    private final long topePorPrestamo;
+
+    /**
+     * @param centimosPorDia  importe por dia de retraso de todas las categorias
+     * @param topePorPrestamo importe maximo de la multa de un prestamo, o
+     *                        {@link #SIN_TOPE} (0) para no limitarla
+     */
+    public TarifaMultas(long centimosPorDia, long topePorPrestamo) {
+        this(relleno(validarImporte(centimosPorDia)), topePorPrestamo);
+    }
+
+    private TarifaMultas(long[] centimosPorDia, long topePorPrestamo) {
+        this.centimosPorDia = centimosPorDia;
+        this.topePorPrestamo = validarImporte(topePorPrestamo);
+    }
+
+    public TarifaMultas conCategoria(Categoria categoria, long centimosPorDia) {
+        if (categoria == null) {
+            throw new IllegalArgumentException("La categoria es obligatoria");
+        }
+        long[] copia = this.centimosPorDia.clone();
+        copia[categoria.ordinal()] = validarImporte(centimosPorDia);
+        return new TarifaMultas(copia, topePorPrestamo);
+    }
+
+    public long getCentimosPorDia(Categoria categoria) {
+        return centimosPorDia[categoria.ordinal()];
+    }
+
+    public long getTopePorPrestamo() {
+        return topePorPrestamo;
+    }
+
+    /**
+     * Multa de un prestamo de un libro de la categoria con esos dias de
+     * retraso.
+     */
+    public long multa(Categoria categoria, int diasRetraso) {
+        if (diasRetraso <= 0) {
+            return 0;
+        }
+        long porDia = centimosPorDia[categoria.ordinal()];
+        long tope = topePorPrestamo == SIN_TOPE ? Long.MAX_VALUE : topePorPrestamo;
+        // Sin desbordar: si el producto pasaria del tope, vale el tope.
+        if (porDia != 0 && diasRetraso > tope / porDia) {
+            return tope;
+        }
+        return Math.min(tope, diasRetraso * porDia);
+    }
+
+    private static long[] relleno(long centimosPorDia) {
+        long[] importes = new long[Categoria.values().length];
+        Arrays.fill(importes, centimosPorDia);
+        return importes;
+    }
+
+    private static long validarImporte(long centimos) {
+        if (centimos < 0) {
+            throw new IllegalArgumentException("Los importes de la tarifa no pueden ser negativos");
+        }
+        return centimos;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        Categoria[] categorias = Categoria.values();
+        for (int i = 0; i < categorias.length; i++) {
+            sb.append(categorias[i]).append('=').append(centimosPorDia[i]).append(", ");
+        }
+        return sb.append("tope=").append(topePorPrestamo).toString();
+    }
+}
@@ -0,0 +1,37 @@
+package biblioteca;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Utilidades de texto compartidas por las busquedas del catalogo.
+ */
+final class Textos {
+    private static final Pattern MARCAS_DIACRITICAS = Pattern.compile("\\p{M}+");
+
+    private Textos() {
+    }
+
+    /**
+     * Devuelve el texto sin tildes ni diacriticos, en minusculas y sin espacios
+     * laterales, que es la forma en la que se comparan las busquedas.
+     */
+    static String normalizar(String texto) {
+        String resultado = texto;
+        if (!esAscii(texto)) {
+            String descompuesto = Normalizer.normalize(texto, Normalizer.Form.NFD);
+            resultado = MARCAS_DIACRITICAS.matcher(descompuesto).replaceAll("");
+        }
+        return resultado.toLowerCase(Locale.ROOT).trim();
+    }
+
+    private static boolean esAscii(String texto) {
+        for (int i = 0; i < texto.length(); i++) {
+            if (texto.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
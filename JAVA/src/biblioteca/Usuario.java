@@ -1,33 +1,43 @@
 package biblioteca;
 
-import java.text.Normalizer;
 import java.util.Arrays;
-import java.util.regex.Pattern;
 
 /**
  * Representa a un usuario de la biblioteca.
  */
 public class Usuario {
     private static final int MAX_PRESTAMOS_ACTIVOS = 5;
-    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9]{6,12}");
 
     private final String id;
     private String nombre;
     private String email;
     private Direccion direccion;
-    private final Prestamo[] prestamosActivos;
-    private int totalPrestamosActivos;
+    // Copia inmutable que se sustituye en cada cambio para poder leerla sin bloqueo.
+    private volatile Prestamo[] prestamosActivos;
+    private volatile Biblioteca biblioteca;
+    // Reservas en espera: cuentan para el maximo de prestamos activos.
+    private volatile int reservas;
+    // Multas en centimos: las generadas por retrasos y lo que se ha pagado.
+    private volatile long multasGeneradas;
+    private volatile long multasPagadas;
+    // Lo pagado al marcar la ultima instantanea, si se ha pagado despues; ver
+    // ColaReservas, que hace lo mismo con las reservas.
+    private int epocaPagos;
+    private long pagadasAlMarcar;
+    private int numero = -1;
+    private String claveBusqueda;
+    private String nombreNormalizado;
 
     public Usuario(String id, String nombre, String email, Direccion direccion) {
         this.id = validarId(id);
         setNombre(nombre);
         setEmail(email);
         setDireccion(direccion);
-        this.prestamosActivos = new Prestamo[MAX_PRESTAMOS_ACTIVOS];
+        this.prestamosActivos = new Prestamo[0];
     }
 
     private String validarId(String valor) {
-        if (valor == null || !ID_PATTERN.matcher(valor.trim()).matches()) {
+        if (!Validaciones.esCodigo(valor, 6, 12, false)) {
             throw new IllegalArgumentException("El id del usuario debe tener entre 6 y 12 caracteres alfanumericos");
         }
         return valor.trim();
@@ -45,7 +55,12 @@ public class Usuario {
         if (nombre == null || nombre.trim().length() < 2) {
             throw new IllegalArgumentException("El nombre del usuario debe tener al menos 2 caracteres");
         }
-        this.nombre = nombre.trim();
+        String limpio = nombre.trim();
+        modificar(() -> {
+            this.nombre = limpio;
+            this.claveBusqueda = null;
+            this.nombreNormalizado = null;
+        });
     }
 
     public String getEmail() {
@@ -60,7 +75,10 @@ public class Usuario {
         if (!limpio.contains("@") || !limpio.contains(".")) {
             throw new IllegalArgumentException("El email del usuario no es valido");
         }
-        this.email = limpio;
+        modificar(() -> {
+            this.email = limpio;
+            this.claveBusqueda = null;
+        });
     }
 
     public Direccion getDireccion() {
@@ -71,55 +89,200 @@ public class Usuario {
         if (direccion == null) {
             throw new IllegalArgumentException("La direccion es obligatoria");
         }
-        this.direccion = direccion;
+        modificar(() -> {
+            this.direccion = direccion;
+            this.claveBusqueda = null;
+        });
+    }
+
+    /**
+     * Aplica un cambio en los datos del usuario. Si esta dado de alta lo
+     * aplica la biblioteca, que lo anota en el diario.
+     */
+    private void modificar(Runnable cambio) {
+        // Con el monitor tomado el alta no puede colarse entre la comprobacion
+        // y el cambio, que quedaria fuera del diario.
+        while (true) {
+            Biblioteca actual;
+            synchronized (this) {
+                actual = biblioteca;
+                if (actual == null) {
+                    cambio.run();
+                    return;
+                }
+            }
+            if (actual.modificarUsuario(this, cambio)) {
+                return;
+            }
+        }
     }
 
     public Prestamo[] getPrestamosActivos() {
-        return Arrays.copyOf(prestamosActivos, totalPrestamosActivos);
+        return prestamosActivos.clone();
+    }
+
+    /**
+     * Prestamos devueltos, en el orden en que se devolvieron. Los guarda el
+     * archivo de la biblioteca en la que esta dado de alta.
+     */
+    public Prestamo[] getHistorialPrestamos() {
+        Biblioteca actual = biblioteca;
+        return actual == null ? new Prestamo[0] : actual.historialDe(this);
+    }
+
+    Biblioteca getBiblioteca() {
+        return biblioteca;
+    }
+
+    void setBiblioteca(Biblioteca biblioteca) {
+        this.biblioteca = biblioteca;
     }
 
-    public void agregarPrestamoActivo(Prestamo prestamo) {
+    /**
+     * Numero que le asigna la biblioteca al darlo de alta, o -1 si no lo tiene.
+     */
+    int getNumero() {
+        return numero;
+    }
+
+    void setNumero(int numero) {
+        this.numero = numero;
+    }
+
+    public synchronized void agregarPrestamoActivo(Prestamo prestamo) {
         if (prestamo == null) {
             throw new IllegalArgumentException("El prestamo es obligatorio");
         }
-        if (totalPrestamosActivos >= MAX_PRESTAMOS_ACTIVOS) {
+        Prestamo[] actuales = prestamosActivos;
+        if (actuales.length >= MAX_PRESTAMOS_ACTIVOS) {
             throw new IllegalArgumentException("El usuario ya tiene el maximo de prestamos activos");
         }
-        prestamosActivos[totalPrestamosActivos++] = prestamo;
+        Prestamo[] nuevos = Arrays.copyOf(actuales, actuales.length + 1);
+        nuevos[actuales.length] = prestamo;
+        prestamosActivos = nuevos;
+        Biblioteca actual = biblioteca;
+        if (actual != null) {
+            actual.vigilarVencimiento(prestamo);
+        }
     }
 
-    public void cerrarPrestamoActivo(Prestamo prestamo) {
+    public synchronized void cerrarPrestamoActivo(Prestamo prestamo) {
         if (prestamo == null) {
             return;
         }
-        for (int i = 0; i < totalPrestamosActivos; i++) {
-            if (prestamosActivos[i] == prestamo) {
-                int elementosAMover = totalPrestamosActivos - i - 1;
-                if (elementosAMover > 0) {
-                    System.arraycopy(prestamosActivos, i + 1, prestamosActivos, i, elementosAMover);
+        Prestamo[] actuales = prestamosActivos;
+        for (int i = 0; i < actuales.length; i++) {
+            if (actuales[i] == prestamo) {
+                // Como mucho hay MAX_PRESTAMOS_ACTIVOS, asi que la copia sin el
+                // prestamo cerrado cuesta lo mismo que mover el ultimo al hueco.
+                Prestamo[] nuevos = new Prestamo[actuales.length - 1];
+                System.arraycopy(actuales, 0, nuevos, 0, i);
+                System.arraycopy(actuales, i + 1, nuevos, i, actuales.length - i - 1);
+                // Se archiva antes de quitarlo para que un fallo no lo deje a medias.
+                Biblioteca actual = biblioteca;
+                if (actual != null) {
+                    actual.archivarPrestamo(prestamo);
                 }
-                prestamosActivos[--totalPrestamosActivos] = null;
+                prestamosActivos = nuevos;
                 break;
             }
         }
     }
 
     public boolean puedePedir() {
-        return totalPrestamosActivos < MAX_PRESTAMOS_ACTIVOS;
+        return prestamosDisponibles() > 0;
+    }
+
+    /**
+     * Cuantos prestamos mas puede tener activos a la vez, descontando los
+     * que tiene reservados.
+     */
+    int prestamosDisponibles() {
+        return MAX_PRESTAMOS_ACTIVOS - prestamosActivos.length - reservas;
+    }
+
+    public int getTotalReservas() {
+        return reservas;
+    }
+
+    /**
+     * Lo que debe de multas, en centimos. Incluye lo acumulado hasta el
+     * ultimo cierre diario por los prestamos activos que van con retraso.
+     */
+    public long getSaldoMultas() {
+        return multasGeneradas - multasPagadas;
+    }
+
+    public long getMultasGeneradas() {
+        return multasGeneradas;
+    }
+
+    public long getMultasPagadas() {
+        return multasPagadas;
+    }
+
+    synchronized void cargarMulta(long centimos) {
+        multasGeneradas = multasGeneradas + centimos;
+    }
+
+    synchronized void setMultasGeneradas(long centimos) {
+        multasGeneradas = centimos;
+    }
+
+    synchronized void pagarMulta(long centimos, int epocaActual) {
+        if (epocaPagos != epocaActual) {
+            pagadasAlMarcar = multasPagadas;
+            epocaPagos = epocaActual;
+        }
+        multasPagadas = multasPagadas + centimos;
+    }
+
+    synchronized void setMultasPagadas(long centimos) {
+        multasPagadas = centimos;
+    }
+
+    /**
+     * Lo pagado al marcar la instantanea de la epoca indicada, que debe ser
+     * la ultima.
+     */
+    synchronized long multasPagadasAlMarcar(int epocaMarcada) {
+        return epocaPagos == epocaMarcada ? pagadasAlMarcar : multasPagadas;
+    }
+
+    synchronized void agregarReserva() {
+        reservas = reservas + 1;
+    }
+
+    synchronized void quitarReserva() {
+        reservas = reservas - 1;
     }
 
     public boolean matches(String texto) {
         if (texto == null || texto.trim().isEmpty()) {
             return false;
         }
-        String patron = normalizar(texto);
-        String candidato = normalizar(id + " " + nombre + " " + email + " " + direccion.toString());
-        return candidato.contains(patron);
+        return coincideCon(Textos.normalizar(texto));
     }
 
-    private String normalizar(String valor) {
-        String normalized = Normalizer.normalize(valor, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
-        return normalized.toLowerCase().trim();
+    /**
+     * Igual que {@link #matches(String)} pero con el patron ya normalizado.
+     */
+    boolean coincideCon(String patronNormalizado) {
+        String clave = claveBusqueda;
+        if (clave == null) {
+            clave = Textos.normalizar(id + " " + nombre + " " + email + " " + direccion.toString());
+            claveBusqueda = clave;
+        }
+        return clave.contains(patronNormalizado);
+    }
+
+    String getNombreNormalizado() {
+        String valor = nombreNormalizado;
+        if (valor == null) {
+            valor = Textos.normalizar(nombre);
+            nombreNormalizado = valor;
+        }
+        return valor;
     }
 
     @Override
@@ -0,0 +1,85 @@
+package biblioteca;
+
+/**
+ * Comprobaciones de formato de los constructores de las entidades, hechas a
+ * mano caracter a caracter para no compilar expresiones regulares ni crear
+ * objetos. Todas ignoran los espacios laterales igual que
+ * {@link String#trim()}.
+ */
+final class Validaciones {
+    private Validaciones() {
+    }
+
+    /**
+     * Indica si el texto son exactamente {@code digitos} cifras.
+     */
+    static boolean sonDigitos(String texto, int digitos) {
+        if (texto == null) {
+            return false;
+        }
+        int inicio = inicio(texto);
+        int fin = fin(texto, inicio);
+        if (fin - inicio != digitos) {
+            return false;
+        }
+        for (int i = inicio; i < fin; i++) {
+            if (!esDigito(texto.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Indica si el texto tiene entre {@code minimo} y {@code maximo} letras
+     * ASCII y cifras, y guiones si se admiten.
+     */
+    static boolean esCodigo(String texto, int minimo, int maximo, boolean admiteGuion) {
+        if (texto == null) {
+            return false;
+        }
+        int inicio = inicio(texto);
+        int fin = fin(texto, inicio);
+        int longitud = fin - inicio;
+        if (longitud < minimo || longitud > maximo) {
+            return false;
+        }
+        for (int i = inicio; i < fin; i++) {
+            char c = texto.charAt(i);
+            if (!esDigito(c) && !esLetraAscii(c) && !(admiteGuion && c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Primera posicion que no es espacio, como la que conserva {@link String#trim()}.
+     */
+    static int inicio(String texto) {
+        int i = 0;
+        while (i < texto.length() && texto.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Posicion siguiente al ultimo caracter que no es espacio.
+     */
+    static int fin(String texto, int inicio) {
+        int fin = texto.length();
+        while (fin > inicio && texto.charAt(fin - 1) <= ' ') {
+            fin--;
+        }
+        return fin;
+    }
+
+    private static boolean esDigito(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean esLetraAscii(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,117 @@
+package biblioteca;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Prestamos activos agrupados por el dia en que vencen, como un calendario:
+ * cada dia con algun vencimiento tiene su grupo y los grupos estan ordenados.
+ *
+ * <p>Consultar los vencidos a una fecha solo recorre los dias anteriores a
+ * ella, y cerrar un prestamo lo quita de su grupo sin buscarlo, asi que el
+ * coste depende de los prestamos vencidos y no de todos los activos. Ademas
+ * recuerda hasta que fecha se ha avisado ya, para avisar de cada prestamo una
+ * sola vez cuando pasa su fecha limite.
+ *
+ * <p>Se llama con los cerrojos de circulacion tomados, asi que solo se
+ * sincroniza consigo mismo y nunca llama fuera mientras lo hace.
+ */
+final class Vencimientos {
+    private final TreeMap<Long, Set<Prestamo>> porDia;
+    private final List<Prestamo> atrasados;
+    private long avisadoHasta;
+    private int total;
+
+    Vencimientos() {
+        this.porDia = new TreeMap<>();
+        this.atrasados = new ArrayList<>();
+        this.avisadoHasta = Long.MIN_VALUE;
+    }
+
+    synchronized void agregar(Prestamo prestamo) {
+        long dia = prestamo.getDiaLimite();
+        if (porDia.computeIfAbsent(dia, k -> new LinkedHashSet<>()).add(prestamo)) {
+            total++;
+        }
+        // Un prestamo con fecha atrasada ya pudo vencer antes del ultimo aviso.
+        if (dia < avisadoHasta) {
+            atrasados.add(prestamo);
+        }
+    }
+
+    synchronized void quitar(Prestamo prestamo) {
+        long dia = prestamo.getDiaLimite();
+        Set<Prestamo> grupo = porDia.get(dia);
+        if (grupo != null && grupo.remove(prestamo)) {
+            total--;
+            if (grupo.isEmpty()) {
+                porDia.remove(dia);
+            }
+        }
+    }
+
+    /**
+     * Numero de prestamos activos.
+     */
+    synchronized int tamanio() {
+        return total;
+    }
+
+    /**
+     * Cuantos prestamos de {@link #vencidos(long)} hay, sin reunirlos.
+     */
+    synchronized int contarVencidos(long dia) {
+        int vencidos = 0;
+        for (Set<Prestamo> grupo : porDia.headMap(dia, false).values()) {
+            vencidos += grupo.size();
+        }
+        return vencidos;
+    }
+
+    /**
+     * Prestamos cuya fecha limite es anterior al dia dado, del que vence
+     * antes al que vence despues.
+     */
+    synchronized List<Prestamo> vencidos(long dia) {
+        List<Prestamo> resultado = new ArrayList<>();
+        for (Set<Prestamo> grupo : porDia.headMap(dia, false).values()) {
+            resultado.addAll(grupo);
+        }
+        return resultado;
+    }
+
+    /**
+     * Prestamos que han vencido desde el aviso anterior hasta el dia dado y
+     * que siguen activos. Si el dia no es posterior al del ultimo aviso no
+     * devuelve nada.
+     */
+    synchronized List<Prestamo> nuevosVencidos(long dia) {
+        List<Prestamo> resultado = new ArrayList<>();
+        for (Prestamo prestamo : atrasados) {
+            if (sigueActivo(prestamo) && prestamo.getDiaLimite() < dia) {
+                resultado.add(prestamo);
+            }
+        }
+        atrasados.removeIf(prestamo -> !sigueActivo(prestamo) || prestamo.getDiaLimite() < dia);
+        if (dia <= avisadoHasta) {
+            return resultado;
+        }
+        Map<Long, Set<Prestamo>> nuevos = avisadoHasta == Long.MIN_VALUE
+                ? porDia.headMap(dia, false)
+                : porDia.subMap(avisadoHasta, true, dia, false);
+        for (Set<Prestamo> grupo : nuevos.values()) {
+            resultado.addAll(grupo);
+        }
+        avisadoHasta = dia;
+        return resultado;
+    }
+
+    private boolean sigueActivo(Prestamo prestamo) {
+        Set<Prestamo> grupo = porDia.get((long) prestamo.getDiaLimite());
+        return grupo != null && grupo.contains(prestamo);
+    }
+}